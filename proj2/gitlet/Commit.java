@@ -1,18 +1,68 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.Locale;
 
+import static gitlet.Utils.*;
+
 /**
  * Represents a gitlet commit object.
  *
+ * A commit names its snapshot by the hash of its root Tree, so that
+ * directories unchanged since the parent are shared rather than copied.
+ * Commits are stored in a compact binary encoding (see encode): the magic
+ * number MAGIC, a format version, a flag byte saying which parents are
+ * present, the raw 20-byte parent hashes and root tree hash, and the
+ * varint-length-prefixed UTF-8 timestamp and message.  Files are looked
+ * up by walking the trees along their path; the full map of files is only
+ * built when asked for.
+ *
+ * Commits of version 1 of the encoding carry their whole snapshot instead
+ * of a tree: after the message, the number of files, a 4-byte offset per
+ * file into the entries that follow, and the entries themselves, sorted by
+ * the UTF-8 bytes of their paths: a varint-length path and the raw blob
+ * hash.  Such tables are read in place and searched by binary search.
+ * Commits written before the binary encoding are Java-serialized; decode
+ * tells the encodings apart by their leading bytes, so old commits keep
+ * both their contents and their ids.
+ *
  * @author onemeter
  */
 public class Commit implements Serializable {
 
+    /** Pinned so that commits serialized before the binary encoding can
+     *  still be read. */
+    private static final long serialVersionUID = 6559303775416879815L;
+
+    /** Magic number at the start of a binary-encoded commit. */
+    private static final int MAGIC = 0x47434d54;
+
+    /** Current binary encoding version. */
+    private static final int VERSION = 2;
+
+    /** Binary encoding version whose commits carry a file table. */
+    private static final int FILE_TABLE_VERSION = 1;
+
+    /** Flag set when the commit has a first parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Flag set when the commit has a second parent. */
+    private static final int HAS_SECOND_PARENT = 2;
+
+    /** Flag set when the commit names a root tree. */
+    private static final int HAS_TREE = 4;
+
+    /** Size of a raw SHA-1 hash in bytes. */
+    private static final int HASH_SIZE = 20;
+
     /** The commit message. */
     private String message;
 
@@ -25,11 +75,26 @@ public class Commit implements Serializable {
     /** The second parent commit SHA-1 hash (for merges). */
     private String secondParent;
 
-    /** File snapshots in this commit: filename -> blob SHA-1 hash. */
+    /** File snapshots in this commit: filename -> blob SHA-1 hash.  Null
+     *  in a decoded commit until first asked for. */
     private HashMap<String, String> fileSnapshots;
 
+    /** The hash of the root tree of this commit, or null for commits
+     *  that predate trees. */
+    private transient String tree;
+
+    /** The .gitlet directory holding this commit's trees. */
+    private transient File gitletDir;
+
+    /** The file table of a decoded commit, positioned at its offsets. */
+    private transient ByteBuffer fileTable;
+
+    /** Number of files in fileTable. */
+    private transient int fileCount;
+
+    /** A commit of the snapshot whose root tree is TREE in GITLETDIR. */
     public Commit(String message, Date timestamp, String parent,
-                  String secondParent, HashMap<String, String> fileSnapshots) {
+                  String secondParent, String tree, File gitletDir) {
         this.message = message;
         Formatter fmt = new Formatter(Locale.US);
         fmt.format("%ta %tb %td %tT %tY %Tz", timestamp, timestamp, timestamp,
@@ -38,17 +103,144 @@ public class Commit implements Serializable {
         fmt.close();
         this.parent = parent;
         this.secondParent = secondParent;
-        this.fileSnapshots = fileSnapshots;
+        this.tree = tree;
+        this.gitletDir = gitletDir;
+    }
+
+    /** A commit decoded from the binary encoding, whose file table is
+     *  FILETABLE holding FILECOUNT files. */
+    private Commit(String message, String timestamp, String parent, String secondParent,
+                   ByteBuffer fileTable, int fileCount) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parent = parent;
+        this.secondParent = secondParent;
+        this.fileTable = fileTable;
+        this.fileCount = fileCount;
+    }
+
+    /** Returns true iff CONTENTS is a commit in the binary encoding
+     *  rather than Java-serialized. */
+    static boolean isEncoded(byte[] contents) {
+        return contents.length >= 5 && ByteBuffer.wrap(contents).getInt() == MAGIC;
+    }
+
+    /** Returns the commit stored as CONTENTS in GITLETDIR, in either
+     *  version of the binary encoding or Java serialization.  Throws
+     *  IllegalArgumentException if it is none of these. */
+    static Commit decode(File gitletDir, byte[] contents) {
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        if (contents.length < 5 || in.getInt() != MAGIC) {
+            return deserialize(contents, Commit.class);
+        }
+        int version = in.get();
+        if (version != VERSION && version != FILE_TABLE_VERSION) {
+            throw new IllegalArgumentException("unknown commit encoding");
+        }
+        int flags = in.get();
+        String parent = (flags & HAS_PARENT) != 0 ? readHash(in) : null;
+        String secondParent = (flags & HAS_SECOND_PARENT) != 0 ? readHash(in) : null;
+        String tree = (flags & HAS_TREE) != 0 ? readHash(in) : null;
+        String timestamp = readString(in);
+        String message = readString(in);
+        if (version == FILE_TABLE_VERSION) {
+            int fileCount = (int) readVarint(in);
+            return new Commit(message, timestamp, parent, secondParent, in.slice(), fileCount);
+        }
+        Commit result = new Commit(message, timestamp, parent, secondParent, null, 0);
+        result.tree = tree;
+        result.gitletDir = gitletDir;
+        return result;
+    }
+
+    /** Returns the binary encoding of this commit. */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        ByteBuffer header = ByteBuffer.allocate(6);
+        header.putInt(MAGIC).put((byte) VERSION)
+            .put((byte) ((parent != null ? HAS_PARENT : 0)
+                         | (secondParent != null ? HAS_SECOND_PARENT : 0) | HAS_TREE));
+        out.write(header.array(), 0, 6);
+        if (parent != null) {
+            out.write(fromHex(parent), 0, HASH_SIZE);
+        }
+        if (secondParent != null) {
+            out.write(fromHex(secondParent), 0, HASH_SIZE);
+        }
+        out.write(fromHex(tree), 0, HASH_SIZE);
+        writeString(out, timestamp);
+        writeString(out, message);
+        return out.toByteArray();
+    }
+
+    /** Returns the hash of the root tree of this commit, or null if it
+     *  predates trees. */
+    public String getTree() {
+        return tree;
     }
 
     public boolean hasFile(String fileName, String hashValue) {
-        return fileSnapshots.containsKey(fileName) && fileSnapshots.get(fileName).equals(hashValue);
+        return hashValue.equals(getBlobHash(fileName));
+    }
+
+    /** Returns the hash of the blob of FILENAME in this commit, or null if
+     *  it does not track FILENAME. */
+    public String getBlobHash(String fileName) {
+        if (fileSnapshots != null) {
+            return fileSnapshots.get(fileName);
+        }
+        if (tree != null) {
+            return Tree.lookup(gitletDir, tree, fileName);
+        }
+        byte[] key = fileName.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = fileCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            ByteBuffer entry = entryAt(mid);
+            byte[] path = new byte[(int) readVarint(entry)];
+            entry.get(path);
+            int cmp = Arrays.compareUnsigned(path, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return readHash(entry);
+            }
+        }
+        return null;
     }
 
     public HashMap<String, String> getFileSnapshots() {
+        if (fileSnapshots == null) {
+            fileSnapshots = flattenSnapshots();
+            fileTable = null;
+        }
         return fileSnapshots;
     }
 
+    /** Returns the files of this commit's snapshot and their blob hashes,
+     *  without keeping them in the commit unless they already were, so
+     *  that a cached commit stays as small as its encoding.  The result
+     *  must not be modified. */
+    HashMap<String, String> flattenSnapshots() {
+        if (fileSnapshots != null) {
+            return fileSnapshots;
+        }
+        HashMap<String, String> result = new HashMap<>();
+        if (tree != null) {
+            Tree.flatten(gitletDir, tree, result);
+        } else {
+            for (int k = 0; k < fileCount; k += 1) {
+                ByteBuffer entry = entryAt(k);
+                byte[] path = new byte[(int) readVarint(entry)];
+                entry.get(path);
+                result.put(new String(path, StandardCharsets.UTF_8), readHash(entry));
+            }
+        }
+        return result;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -64,4 +256,31 @@ public class Commit implements Serializable {
     public String getSecondParent() {
         return secondParent;
     }
+
+    /** Returns a view of file table entry K. */
+    private ByteBuffer entryAt(int k) {
+        return fileTable.slice(4 * fileCount + fileTable.getInt(4 * k),
+                               fileTable.limit() - 4 * fileCount - fileTable.getInt(4 * k));
+    }
+
+    /** Reads a raw hash from IN and returns it in hex. */
+    private static String readHash(ByteBuffer in) {
+        byte[] hash = new byte[HASH_SIZE];
+        in.get(hash);
+        return toHex(hash);
+    }
+
+    /** Reads a varint-length-prefixed UTF-8 string from IN. */
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes S to OUT as a varint-length-prefixed UTF-8 string. */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
 }
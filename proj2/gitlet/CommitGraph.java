@@ -0,0 +1,300 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** The parent table of all commits of a repository, persisted in the
+ *  commit-graph file so that ancestry questions never need to deserialize
+ *  a Commit.
+ *
+ *  Commits are numbered in the order they were added, which is always a
+ *  topological order: a commit is only added once its parents are.  The
+ *  file is the magic number MAGIC and a format version, followed by one
+ *  fixed-width record per commit in index order: its raw 20-byte hash,
+ *  the indices of its two parents (NONE if absent) and its generation
+ *  number, which is 1 for a root commit and otherwise one more than the
+ *  largest generation of its parents.  A commit can only be an ancestor of
+ *  commits with a larger generation, which lets ancestry walks stop early.
+ *
+ *  The file is only ever appended to, and only by commands that change
+ *  history: by commit, and by ensure when it meets commits written by
+ *  other means (fetched commits, repositories that predate the file).
+ *  Commands that only read history, such as log, ensure the commits they
+ *  need in memory and do not save, since they hold the repository lock
+ *  shared and may run side by side.  Commits on the shallow boundary of
+ *  the repository (see ShallowBoundary) are added without parents.
+ *
+ *  @author onemeter
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the commit-graph file. */
+    private static final int MAGIC = 0x47434731;
+
+    /** Current commit-graph format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of one commit record in bytes. */
+    private static final int RECORD_SIZE = 20 + 3 * 4;
+
+    /** Parent index denoting no parent. */
+    static final int NONE = -1;
+
+    /** The .gitlet directory this graph describes. */
+    private final File gitletDir;
+
+    /** The commit-graph file. */
+    private final File file;
+
+    /** Hash of each commit, by index. */
+    private final ArrayList<String> hashes = new ArrayList<>();
+
+    /** Index of each commit, by hash. */
+    private final HashMap<String, Integer> indices = new HashMap<>();
+
+    /** First and second parent indices and generation number of each
+     *  commit, by index; three entries per commit. */
+    private int[] table = new int[3 * 64];
+
+    /** Number of commits already recorded in the file. */
+    private int saved;
+
+    /** The shallow boundary of the repository. */
+    private final Set<String> shallow;
+
+    /** The commit graph of GITLETDIR, read from its commit-graph file. */
+    private CommitGraph(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = join(gitletDir, "commit-graph");
+        this.shallow = ShallowBoundary.load(gitletDir);
+    }
+
+    /** Returns the commit graph of GITLETDIR as recorded on disk.  A
+     *  record left incomplete by an interrupted append is ignored. */
+    static CommitGraph load(File gitletDir) {
+        CommitGraph graph = new CommitGraph(gitletDir);
+        if (graph.file.isFile()) {
+            ByteBuffer in = ByteBuffer.wrap(readContents(graph.file));
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC
+                || in.getInt() != VERSION) {
+                throw error("Corrupt commit-graph file.");
+            }
+            byte[] hash = new byte[20];
+            while (in.remaining() >= RECORD_SIZE) {
+                in.get(hash);
+                graph.append(toHex(hash), in.getInt(), in.getInt(), in.getInt());
+            }
+            graph.saved = graph.size();
+        }
+        return graph;
+    }
+
+    /** Returns the number of commits in this graph. */
+    int size() {
+        return hashes.size();
+    }
+
+    /** Returns the index of the commit whose hash is HASH, or NONE if it
+     *  is not in this graph. */
+    int indexOf(String hash) {
+        Integer result = indices.get(hash);
+        return result == null ? NONE : result;
+    }
+
+    /** Returns the hash of commit K. */
+    String hashAt(int k) {
+        return hashes.get(k);
+    }
+
+    /** Returns the index of the first parent of commit K, or NONE. */
+    int parent(int k) {
+        return table[3 * k];
+    }
+
+    /** Returns the index of the second parent of commit K, or NONE. */
+    int secondParent(int k) {
+        return table[3 * k + 1];
+    }
+
+    /** Returns the generation number of commit K. */
+    int generation(int k) {
+        return table[3 * k + 2];
+    }
+
+    /** Adds the commit whose hash is HASH and whose parents have hashes
+     *  PARENT and SECONDPARENT (either may be null), which must already
+     *  be in this graph, and returns its index. */
+    int add(String hash, String parent, String secondParent) {
+        int k = indexOf(hash);
+        if (k != NONE) {
+            return k;
+        }
+        int p1 = parent == null ? NONE : indexOf(parent);
+        int p2 = secondParent == null ? NONE : indexOf(secondParent);
+        if ((parent != null && p1 == NONE) || (secondParent != null && p2 == NONE)) {
+            throw new IllegalArgumentException("parent of " + hash + " not in graph");
+        }
+        int generation = 1 + Math.max(p1 == NONE ? 0 : generation(p1),
+                                      p2 == NONE ? 0 : generation(p2));
+        return append(hash, p1, p2, generation);
+    }
+
+    /** Returns the index of the commit whose hash is HASH, first adding
+     *  it and any of its ancestors missing from this graph by reading
+     *  them from the object store. */
+    int ensure(String hash) {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(hash);
+        while (!pending.isEmpty()) {
+            String next = pending.peek();
+            if (indexOf(next) != NONE) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = ObjectStore.readCommit(gitletDir, next);
+            String[] parents = shallow.contains(next) ? new String[2]
+                : new String[] {commit.getParent(), commit.getSecondParent()};
+            boolean ready = true;
+            for (String parent : parents) {
+                if (parent != null && indexOf(parent) == NONE) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                add(next, parents[0], parents[1]);
+            }
+        }
+        return indexOf(hash);
+    }
+
+    /** Appends the commits added since this graph was loaded or last
+     *  saved to the commit-graph file. */
+    void save() {
+        if (saved == size()) {
+            return;
+        }
+        boolean fresh = !file.isFile();
+        if (!fresh && file.length() != HEADER_SIZE + (long) saved * RECORD_SIZE) {
+            /* Drop a record left incomplete by an interrupted append. */
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(HEADER_SIZE + (long) saved * RECORD_SIZE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (int k = saved; k < size(); k += 1) {
+                out.write(fromHex(hashAt(k)));
+                out.writeInt(parent(k));
+                out.writeInt(secondParent(k));
+                out.writeInt(generation(k));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        saved = size();
+    }
+
+    /** Returns the set of indices of commit K and all its ancestors. */
+    BitSet ancestors(int k) {
+        BitSet result = new BitSet(size());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(k);
+        result.set(k);
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            for (int p : new int[] {parent(c), secondParent(c)}) {
+                if (p != NONE && !result.get(p)) {
+                    result.set(p);
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff commit A is commit B or one of its ancestors.  The
+     *  walk from B never descends below A's generation. */
+    boolean isAncestor(int a, int b) {
+        int floor = generation(a);
+        BitSet seen = new BitSet(size());
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(b);
+        while (!stack.isEmpty()) {
+            int c = stack.pop();
+            if (c == a) {
+                return true;
+            }
+            for (int p : new int[] {parent(c), secondParent(c)}) {
+                if (p != NONE && !seen.get(p) && generation(p) >= floor) {
+                    seen.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the split point of commits A and B: the first ancestor of
+     *  A, in breadth-first order, that is also an ancestor of B, or NONE
+     *  if they have no common ancestor. */
+    int mergeBase(int a, int b) {
+        BitSet fromB = ancestors(b);
+        BitSet seen = new BitSet(size());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(a);
+        seen.set(a);
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            if (fromB.get(c)) {
+                return c;
+            }
+            for (int p : new int[] {parent(c), secondParent(c)}) {
+                if (p != NONE && !seen.get(p)) {
+                    seen.set(p);
+                    queue.add(p);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Appends a commit record and returns its index. */
+    private int append(String hash, int parent, int secondParent, int generation) {
+        int k = hashes.size();
+        if (3 * k + 3 > table.length) {
+            table = Arrays.copyOf(table, 2 * table.length);
+        }
+        table[3 * k] = parent;
+        table[3 * k + 1] = secondParent;
+        table[3 * k + 2] = generation;
+        hashes.add(hash);
+        indices.put(hash, k);
+        return k;
+    }
+}
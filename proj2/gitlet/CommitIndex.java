@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The sorted list of the ids of all commits of a repository, persisted
+ *  in the commit-ids file so that abbreviated commit ids can be resolved
+ *  without listing every commit.
+ *
+ *  The file is the magic number MAGIC, a format version and the number of
+ *  commits, then a fan-out table of FANOUT entries whose entry B is the
+ *  number of ids whose first byte is at most B, then the raw 20-byte ids
+ *  in sorted order.  The fan-out table narrows a lookup to the ids
+ *  sharing the first byte of the prefix, and a binary search over the
+ *  memory-mapped ids finds the rest.
+ *
+ *  The file is rewritten whole, atomically, whenever commits are added.
+ *  A repository without one (or whose file is damaged) has it rebuilt
+ *  from the object store on first use.  So does one in which a prefix
+ *  matches nothing and the store holds a different number of commits
+ *  than the file, as when an interrupted command stored a commit without
+ *  indexing it; a prefix that simply names no commit costs only the
+ *  count.
+ *
+ *  @author onemeter
+ */
+class CommitIndex {
+
+    /** Magic number at the start of the commit-ids file. */
+    private static final int MAGIC = 0x47434931;
+
+    /** Current commit-ids format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    private static final int HEADER_SIZE = 12;
+
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Size of a raw commit id in bytes. */
+    private static final int HASH_SIZE = PackFile.HASH_SIZE;
+
+    /** The .gitlet directory whose commits are indexed. */
+    private final File gitletDir;
+
+    /** The commit-ids file. */
+    private final File file;
+
+    /** The mapped fan-out table and ids, positioned past the header. */
+    private ByteBuffer index;
+
+    /** Number of ids in the mapped file. */
+    private int count;
+
+    /** Ids added since the file was last written. */
+    private final TreeSet<String> added = new TreeSet<>();
+
+    /** True iff the file has been rebuilt from the object store. */
+    private boolean rebuilt;
+
+    /** The commit index of GITLETDIR. */
+    private CommitIndex(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = join(gitletDir, "commit-ids");
+    }
+
+    /** Returns the commit index of GITLETDIR, building it first if it is
+     *  missing or damaged. */
+    static CommitIndex load(File gitletDir) {
+        CommitIndex result = new CommitIndex(gitletDir);
+        if (!result.file.isFile() || !result.map()) {
+            result.rebuild();
+        }
+        return result;
+    }
+
+    /** Returns the number of commits in this index. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the full id of the one commit whose id starts with PREFIX,
+     *  or null if there is none.  Throws a GitletException if there are
+     *  several. */
+    String resolve(String prefix) {
+        String result = find(prefix);
+        if (result == null && !rebuilt && isHex(prefix) && isStale()) {
+            rebuild();
+            result = find(prefix);
+        }
+        return result;
+    }
+
+    /** Records that the commit whose id is HASH has been stored. */
+    void add(String hash) {
+        if (find(hash) == null) {
+            added.add(hash);
+        }
+    }
+
+    /** Writes this index back to its file if commits were added. */
+    void save() {
+        if (added.isEmpty()) {
+            return;
+        }
+        TreeSet<String> all = new TreeSet<>(added);
+        for (int k = 0; k < count; k += 1) {
+            all.add(hashAt(k));
+        }
+        write(all);
+    }
+
+    /** Returns the full id of the one commit in the file whose id starts
+     *  with PREFIX, or null if there is none.  Throws a GitletException if
+     *  there are several. */
+    private String find(String prefix) {
+        if (!isHex(prefix) || prefix.length() > 2 * HASH_SIZE) {
+            return null;
+        }
+        int lo, hi;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : fanout(first - 1);
+            hi = fanout(first);
+        } else if (prefix.length() == 1) {
+            int first = Character.digit(prefix.charAt(0), 16) << 4;
+            lo = first == 0 ? 0 : fanout(first - 1);
+            hi = fanout(first + 15);
+        } else {
+            lo = 0;
+            hi = count;
+        }
+        /* Find the first id not less than PREFIX. */
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == count || !hashAt(lo).startsWith(prefix)) {
+            return null;
+        }
+        if (lo + 1 < count && hashAt(lo + 1).startsWith(prefix)) {
+            throw error("Ambiguous commit id.");
+        }
+        return hashAt(lo);
+    }
+
+    /** Returns fan-out table entry B. */
+    private int fanout(int b) {
+        return index.getInt(4 * b);
+    }
+
+    /** Returns the hex id of the Kth commit in sorted order. */
+    String hashAt(int k) {
+        byte[] hash = new byte[HASH_SIZE];
+        index.get(4 * FANOUT + k * HASH_SIZE, hash);
+        return toHex(hash);
+    }
+
+    /** Maps the commit-ids file, returning false if it is malformed. */
+    private boolean map() {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < HEADER_SIZE + 4 * FANOUT
+                || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return false;
+            }
+            int n = buf.getInt();
+            if (buf.remaining() != 4 * FANOUT + (long) n * HASH_SIZE) {
+                return false;
+            }
+            index = buf.slice();
+            count = n;
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns true iff the object store holds a different number of
+     *  commits than this index. */
+    private boolean isStale() {
+        return ObjectStore.list(gitletDir, ObjectStore.COMMIT).size() != count + added.size();
+    }
+
+    /** Rebuilds the file from the commits in the object store. */
+    private void rebuild() {
+        TreeSet<String> all = new TreeSet<>(ObjectStore.list(gitletDir, ObjectStore.COMMIT));
+        all.addAll(added);
+        write(all);
+        rebuilt = true;
+    }
+
+    /** Writes the sorted ids ALL to the file and maps it. */
+    private void write(TreeSet<String> all) {
+        try {
+            ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(HEADER_SIZE + 4 * FANOUT + all.size() * HASH_SIZE);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(all.size());
+            int[] fanout = new int[FANOUT];
+            for (String hash : all) {
+                fanout[Integer.parseInt(hash.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < FANOUT; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (String hash : all) {
+                out.write(fromHex(hash));
+            }
+            out.close();
+            writeContentsAtomically(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        added.clear();
+        if (!map()) {
+            throw new IllegalArgumentException("cannot map " + file);
+        }
+    }
+
+    /** Returns true iff S consists of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,476 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** The metadata of every commit of a repository (id, parents, timestamp
+ *  and message), kept in an append-only log so that global-log and find
+ *  can read them without deserializing any Commit.
+ *
+ *  The commit-log file is the magic number LOG_MAGIC and a format version,
+ *  followed by one record per commit in the order they were added: its
+ *  raw id and the raw ids of its two parents (all zeros if absent), its
+ *  timestamp as a length-prefixed UTF-8 string and its message as an
+ *  int-length-prefixed UTF-8 string.
+ *
+ *  The message index (commit-log.idx) makes find a lookup.  It is
+ *  INDEX_MAGIC, the version, the number of records in the log and the
+ *  length of the log they occupy, followed by one fixed-width entry per
+ *  record sorted by the raw SHA-1 of the commit's message: that hash and
+ *  the offset of the record in the log.  The index is rewritten whole,
+ *  atomically, after each append, and is what says how much of the log is
+ *  valid: bytes past that length were left by an interrupted append and
+ *  are cut off by the next one.
+ *
+ *  Commits that reach the object store by other means (fetch, push,
+ *  repositories that predate the log) are added by sync, which compares
+ *  the log with the CommitIndex, when a command that changes history
+ *  (commit, fetch) next runs.  Commands that only read history hold the
+ *  repository lock shared and may run side by side, so they use include
+ *  instead, which reads the missing commits without writing the log.
+ *
+ *  @author onemeter
+ */
+class CommitLog {
+
+    /** Magic number at the start of the commit-log file. */
+    private static final int LOG_MAGIC = 0x47434c31;
+
+    /** Magic number at the start of the message index. */
+    private static final int INDEX_MAGIC = 0x474d4931;
+
+    /** Current commit-log and message index format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the commit-log header in bytes. */
+    private static final int LOG_HEADER_SIZE = 8;
+
+    /** Size of the message index header in bytes. */
+    private static final int INDEX_HEADER_SIZE = 20;
+
+    /** Size of a raw SHA-1 hash in bytes. */
+    private static final int HASH_SIZE = PackFile.HASH_SIZE;
+
+    /** Size of one message index entry in bytes. */
+    private static final int INDEX_RECORD_SIZE = HASH_SIZE + 8;
+
+    /** The raw id recorded for a missing parent. */
+    private static final byte[] NO_PARENT = new byte[HASH_SIZE];
+
+    /** The metadata of one commit. */
+    static class Entry {
+        /** The commit's id. */
+        final String hash;
+        /** The id of its first parent, or null. */
+        final String parent;
+        /** The id of its second parent, or null. */
+        final String secondParent;
+        /** Its timestamp, formatted as in Commit. */
+        final String timestamp;
+        /** Its message. */
+        final String message;
+
+        Entry(String hash, String parent, String secondParent,
+              String timestamp, String message) {
+            this.hash = hash;
+            this.parent = parent;
+            this.secondParent = secondParent;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+    }
+
+    /** A message index entry: the raw message hash KEY of the record at
+     *  OFFSET in the log. */
+    private static class IndexEntry implements Comparable<IndexEntry> {
+        final byte[] key;
+        final long offset;
+
+        IndexEntry(byte[] key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other) {
+            int cmp = Arrays.compareUnsigned(key, other.key);
+            return cmp != 0 ? cmp : Long.compare(offset, other.offset);
+        }
+    }
+
+    /** The .gitlet directory whose commits are logged. */
+    private final File gitletDir;
+
+    /** The commit-log file. */
+    private final File logFile;
+
+    /** The message index file. */
+    private final File indexFile;
+
+    /** The mapped entries of the message index. */
+    private ByteBuffer index;
+
+    /** Number of entries in the mapped message index. */
+    private int count;
+
+    /** Length of the valid part of the log. */
+    private long logLength;
+
+    /** Index entries of the records appended since the index was last
+     *  written. */
+    private final List<IndexEntry> added = new ArrayList<>();
+
+    /** Commits missing from the log that include read but did not
+     *  append, in CommitIndex order. */
+    private final List<Entry> unlogged = new ArrayList<>();
+
+    /** The commit log of GITLETDIR. */
+    private CommitLog(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.logFile = join(gitletDir, "commit-log");
+        this.indexFile = join(gitletDir, "commit-log.idx");
+    }
+
+    /** Returns the commit log of GITLETDIR as recorded on disk.  A log
+     *  whose message index is missing or damaged starts out empty. */
+    static CommitLog load(File gitletDir) {
+        CommitLog log = new CommitLog(gitletDir);
+        if (!log.indexFile.isFile() || !log.map()) {
+            log.index = ByteBuffer.allocate(0);
+            log.count = 0;
+            log.logLength = 0;
+        }
+        return log;
+    }
+
+    /** Returns the number of commits in this log. */
+    int size() {
+        return count + added.size() + unlogged.size();
+    }
+
+    /** Appends the commit COMMIT, whose id is HASH, unless it is already
+     *  in this log. */
+    void add(String hash, Commit commit) {
+        byte[] key = fromHex(sha1(commit.getMessage()));
+        for (Entry entry : entriesWithKey(key)) {
+            if (entry.hash.equals(hash)) {
+                return;
+            }
+        }
+        append(new Entry(hash, commit.getParent(), commit.getSecondParent(),
+                         commit.getTimestamp(), commit.getMessage()));
+    }
+
+    /** Rewrites this log without the commits whose ids are not in KEEP,
+     *  keeping the rest in their order. */
+    void retain(Set<String> keep) {
+        List<Entry> kept = new ArrayList<>();
+        forEach(entry -> {
+            if (keep.contains(entry.hash)) {
+                kept.add(entry);
+            }
+        });
+        indexFile.delete();
+        logFile.delete();
+        index = ByteBuffer.allocate(0);
+        count = 0;
+        logLength = 0;
+        added.clear();
+        unlogged.clear();
+        for (Entry entry : kept) {
+            append(entry);
+        }
+        save();
+    }
+
+    /** Appends the record of ENTRY to the log. */
+    private void append(Entry entry) {
+        byte[] key = fromHex(sha1(entry.message));
+        try {
+            if (logLength == 0) {
+                writeContents(logFile, new byte[0]);
+            }
+            if (logFile.length() != logLength) {
+                /* Drop a record left incomplete by an interrupted append. */
+                try (FileChannel channel = FileChannel.open(logFile.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    channel.truncate(logLength);
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (logLength == 0) {
+                out.writeInt(LOG_MAGIC);
+                out.writeInt(VERSION);
+            }
+            long offset = Math.max(logLength, LOG_HEADER_SIZE);
+            out.write(fromHex(entry.hash));
+            out.write(rawParent(entry.parent));
+            out.write(rawParent(entry.secondParent));
+            byte[] timestamp = entry.timestamp.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(timestamp.length);
+            out.write(timestamp);
+            byte[] message = entry.message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(message.length);
+            out.write(message);
+            out.close();
+            try (FileOutputStream log = new FileOutputStream(logFile, true)) {
+                log.write(bytes.toByteArray());
+            }
+            logLength += bytes.size();
+            added.add(new IndexEntry(key, offset));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds to this log every commit of the repository that is not yet in
+     *  it, reading those commits from the object store. */
+    void sync() {
+        for (String hash : missing()) {
+            add(hash, ObjectStore.readCommit(gitletDir, hash));
+        }
+    }
+
+    /** Makes this log show every commit of the repository that is not yet
+     *  in it, reading those commits from the object store but, unlike
+     *  sync, leaving the log on disk as it is. */
+    void include() {
+        for (String hash : missing()) {
+            Commit commit = ObjectStore.readCommit(gitletDir, hash);
+            unlogged.add(new Entry(hash, commit.getParent(), commit.getSecondParent(),
+                                   commit.getTimestamp(), commit.getMessage()));
+        }
+    }
+
+    /** Returns the ids of the commits of the repository that are not in
+     *  this log, in CommitIndex order. */
+    private List<String> missing() {
+        List<String> result = new ArrayList<>();
+        CommitIndex ids = CommitIndex.load(gitletDir);
+        if (size() >= ids.size()) {
+            return result;
+        }
+        HashSet<String> logged = new HashSet<>();
+        forEach(entry -> logged.add(entry.hash));
+        for (int k = 0; k < ids.size(); k += 1) {
+            String hash = ids.hashAt(k);
+            if (!logged.contains(hash)) {
+                result.add(hash);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the message index for the records appended since it was
+     *  last written. */
+    void save() {
+        if (added.isEmpty()) {
+            return;
+        }
+        List<IndexEntry> all = new ArrayList<>(added);
+        for (int k = 0; k < count; k += 1) {
+            all.add(indexEntryAt(k));
+        }
+        Collections.sort(all);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                INDEX_HEADER_SIZE + all.size() * INDEX_RECORD_SIZE);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(all.size());
+            out.writeLong(logLength);
+            for (IndexEntry entry : all) {
+                out.write(entry.key);
+                out.writeLong(entry.offset);
+            }
+            out.close();
+            writeContentsAtomically(indexFile, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        added.clear();
+        if (!map()) {
+            throw new IllegalArgumentException("cannot map " + indexFile);
+        }
+    }
+
+    /** Calls ACTION on each commit of this log, in the order they were
+     *  added, reading the log sequentially, and then on those read by
+     *  include. */
+    void forEach(Consumer<Entry> action) {
+        if (logLength > LOG_HEADER_SIZE) {
+            forEachLogged(action);
+        }
+        unlogged.forEach(action);
+    }
+
+    /** Calls ACTION on each record of the log file, in order. */
+    private void forEachLogged(Consumer<Entry> action) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(logFile.toPath(),
+                                                         StandardOpenOption.READ))))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupt commit log.");
+            }
+            long pos = LOG_HEADER_SIZE;
+            while (pos < logLength) {
+                Entry entry = readEntry(in);
+                pos += recordSize(entry);
+                action.accept(entry);
+            }
+        } catch (EOFException excp) {
+            throw error("Corrupt commit log.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of all commits whose message is MESSAGE, in sorted
+     *  order. */
+    List<String> find(String message) {
+        List<String> result = new ArrayList<>();
+        for (Entry entry : entriesWithKey(fromHex(sha1(message)))) {
+            if (entry.message.equals(message)) {
+                result.add(entry.hash);
+            }
+        }
+        for (Entry entry : unlogged) {
+            if (entry.message.equals(message)) {
+                result.add(entry.hash);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the entries of the commits whose message has raw hash KEY
+     *  (and, rarely, others that share it). */
+    private List<Entry> entriesWithKey(byte[] key) {
+        List<Long> offsets = new ArrayList<>();
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(keyAt(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count && Arrays.equals(keyAt(k), key); k += 1) {
+            offsets.add(indexEntryAt(k).offset);
+        }
+        for (IndexEntry entry : added) {
+            if (Arrays.equals(entry.key, key)) {
+                offsets.add(entry.offset);
+            }
+        }
+        List<Entry> result = new ArrayList<>();
+        if (offsets.isEmpty()) {
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            for (long offset : offsets) {
+                channel.position(offset);
+                result.add(readEntry(new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)))));
+            }
+        } catch (EOFException excp) {
+            throw error("Corrupt commit log.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the message hash of the Kth entry of the mapped index. */
+    private byte[] keyAt(int k) {
+        byte[] key = new byte[HASH_SIZE];
+        index.get(k * INDEX_RECORD_SIZE, key);
+        return key;
+    }
+
+    /** Returns the Kth entry of the mapped index. */
+    private IndexEntry indexEntryAt(int k) {
+        return new IndexEntry(keyAt(k), index.getLong(k * INDEX_RECORD_SIZE + HASH_SIZE));
+    }
+
+    /** Maps the message index, returning false if it is malformed. */
+    private boolean map() {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < INDEX_HEADER_SIZE
+                || buf.getInt() != INDEX_MAGIC || buf.getInt() != VERSION) {
+                return false;
+            }
+            int n = buf.getInt();
+            long length = buf.getLong();
+            if (buf.remaining() != (long) n * INDEX_RECORD_SIZE || logFile.length() < length) {
+                return false;
+            }
+            index = buf.slice();
+            count = n;
+            logLength = length;
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Reads one log record from IN. */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        byte[] hash = new byte[HASH_SIZE];
+        byte[] parent = new byte[HASH_SIZE];
+        byte[] secondParent = new byte[HASH_SIZE];
+        in.readFully(hash);
+        in.readFully(parent);
+        in.readFully(secondParent);
+        byte[] timestamp = new byte[in.readUnsignedShort()];
+        in.readFully(timestamp);
+        byte[] message = new byte[in.readInt()];
+        in.readFully(message);
+        return new Entry(toHex(hash), hexParent(parent), hexParent(secondParent),
+                         new String(timestamp, StandardCharsets.UTF_8),
+                         new String(message, StandardCharsets.UTF_8));
+    }
+
+    /** Returns the size in bytes of the log record of ENTRY. */
+    private static long recordSize(Entry entry) {
+        return 3 * HASH_SIZE + 2 + entry.timestamp.getBytes(StandardCharsets.UTF_8).length
+            + 4 + entry.message.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** Returns the raw form of the parent id PARENT, which may be null. */
+    private static byte[] rawParent(String parent) {
+        return parent == null ? NO_PARENT : fromHex(parent);
+    }
+
+    /** Returns the hex form of the raw parent id PARENT, or null if it
+     *  denotes no parent. */
+    private static String hexParent(byte[] parent) {
+        return Arrays.equals(parent, NO_PARENT) ? null : toHex(parent);
+    }
+}
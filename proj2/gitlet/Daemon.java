@@ -0,0 +1,270 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process serving the commands of one repository,
+ *  so that they run in a warm JVM that keeps the open packs, parsed
+ *  commits and stat index from one command to the next.
+ *
+ *  The daemon listens on the Unix domain socket SOCKET in the .gitlet
+ *  directory and runs one command at a time, which also keeps commands
+ *  from interleaving.  Main forwards its arguments there whenever the
+ *  socket accepts a connection, and otherwise runs the command itself.
+ *  Before each command the daemon drops whatever it has cached that
+ *  another process might have changed; the stat index reloads itself if
+ *  its file was rewritten.  The daemon exits, removing the socket, once no
+ *  command has arrived for its idle timeout.
+ *
+ *  A request is the number of arguments followed by each argument as a
+ *  length-prefixed UTF-8 string.  The daemon answers with a sequence of
+ *  frames, each a channel byte and a length-prefixed payload: first
+ *  ACCEPTED, once the command is about to run, then STDOUT and STDERR
+ *  output as it is produced, and finally EXIT, whose payload is the 4-byte
+ *  exit status.  A client whose connection closes before ACCEPTED knows
+ *  the command never started and may run it itself.
+ *
+ *  @author onemeter
+ */
+class Daemon {
+
+    /** Name of the socket in the .gitlet directory. */
+    static final String SOCKET = "daemon.sock";
+
+    /** Idle timeout used when none is given, in seconds. */
+    static final long DEFAULT_IDLE_SECONDS = 600;
+
+    /** Frame sent once the command has been read and is about to run. */
+    private static final byte ACCEPTED = 0;
+
+    /** Frame carrying standard output. */
+    private static final byte STDOUT = 1;
+
+    /** Frame carrying standard error. */
+    private static final byte STDERR = 2;
+
+    /** Frame carrying the exit status; always the last. */
+    private static final byte EXIT = 3;
+
+    /** Longest argument list accepted in a request. */
+    private static final int MAX_ARGS = 1024;
+
+    /** Serves the commands of REPO until none has arrived for
+     *  IDLESECONDS seconds. */
+    static void serve(Repository repo, long idleSeconds) {
+        File socket = join(repo.getGitletDir(), SOCKET);
+        if (isRunning(socket)) {
+            throw error("A gitlet daemon is already running.");
+        }
+        socket.delete();
+        long idle = TimeUnit.SECONDS.toNanos(idleSeconds);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            long lastCommand = System.nanoTime();
+            while (true) {
+                long remaining = idle - (System.nanoTime() - lastCommand);
+                if (remaining <= 0) {
+                    break;
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client == null) {
+                    continue;
+                }
+                try (client) {
+                    client.configureBlocking(true);
+                    handle(repo, client);
+                } catch (IOException excp) {
+                    /* The client went away; nothing to report to. */
+                }
+                lastCommand = System.nanoTime();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Runs the command of ARGS through the daemon of the repository
+     *  GITLETDIR, copying its output to this process's standard output
+     *  and error, and returns its exit status.  Returns null if there is
+     *  no daemon, or it closed the connection before starting the
+     *  command. */
+    static Integer forward(File gitletDir, String[] args) {
+        File socket = join(gitletDir, SOCKET);
+        if (!socket.exists()) {
+            return null;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+        boolean accepted = false;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            while (true) {
+                byte kind = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                switch (kind) {
+                    case ACCEPTED:
+                        accepted = true;
+                        break;
+                    case STDOUT:
+                        System.out.write(payload);
+                        break;
+                    case STDERR:
+                        System.err.write(payload);
+                        break;
+                    default:
+                        System.out.flush();
+                        System.err.flush();
+                        return ByteBuffer.wrap(payload).getInt();
+                }
+            }
+        } catch (IOException excp) {
+            if (!accepted) {
+                return null;
+            }
+            System.out.flush();
+            System.err.println("Lost connection to the gitlet daemon.");
+            return 1;
+        }
+    }
+
+    /** Returns true iff a daemon is accepting connections on SOCKET. */
+    private static boolean isRunning(File socket) {
+        if (!socket.exists()) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Reads one request from CLIENT, runs it on REPO and sends back its
+     *  output and exit status. */
+    private static void handle(Repository repo, SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        int argc = in.readInt();
+        if (argc < 0 || argc > MAX_ARGS) {
+            return;
+        }
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i += 1) {
+            int length = in.readInt();
+            if (length < 0) {
+                return;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            args[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        sendFrame(out, ACCEPTED, new byte[0], 0, 0);
+        out.flush();
+
+        PrintStream stdout = new PrintStream(
+            new BufferedOutputStream(new FrameStream(out, STDOUT)), false,
+            StandardCharsets.UTF_8);
+        PrintStream stderr = new PrintStream(
+            new BufferedOutputStream(new FrameStream(out, STDERR)), false,
+            StandardCharsets.UTF_8);
+        PrintStream savedOut = System.out;
+        PrintStream savedErr = System.err;
+        int status = 0;
+        System.setOut(stdout);
+        System.setErr(stderr);
+        try {
+            if (argc > 0 && args[0].equals("daemon")) {
+                throw error("A gitlet daemon is already running.");
+            }
+            ObjectStore.refresh();
+            Main.run(repo, args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            System.setOut(savedOut);
+            System.setErr(savedErr);
+        }
+        stdout.flush();
+        stderr.flush();
+        byte[] exit = ByteBuffer.allocate(4).putInt(status).array();
+        sendFrame(out, EXIT, exit, 0, exit.length);
+        out.flush();
+    }
+
+    /** Writes to OUT a frame of kind KIND carrying LEN bytes of BUF
+     *  starting at OFF. */
+    private static void sendFrame(DataOutputStream out, byte kind,
+                                  byte[] buf, int off, int len) throws IOException {
+        out.writeByte(kind);
+        out.writeInt(len);
+        out.write(buf, off, len);
+    }
+
+    /** An output stream sending everything written to it as frames of
+     *  one kind. */
+    private static class FrameStream extends OutputStream {
+        /** Where the frames go. */
+        private final DataOutputStream out;
+        /** Kind of the frames. */
+        private final byte kind;
+
+        FrameStream(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            sendFrame(out, kind, buf, off, len);
+            out.flush();
+        }
+    }
+}
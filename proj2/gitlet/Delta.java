@@ -0,0 +1,147 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas between two versions of a file.
+ *
+ *  A delta is the varint length of the base and of the target, followed
+ *  by instructions that rebuild the target from the base: COPY, followed
+ *  by a varint offset and length, copies a range of the base; a byte N in
+ *  1..MAX_INSERT inserts the N literal bytes that follow it.
+ *
+ *  Deltas are found by indexing each BLOCK-byte block of the base by a
+ *  hash of its contents, then looking up every BLOCK-byte window of the
+ *  target and extending each verified match in both directions.
+ *
+ *  @author onemeter
+ */
+class Delta {
+
+    /** Instruction byte introducing a copy from the base. */
+    private static final int COPY = 0x80;
+
+    /** Longest literal run encoded by a single insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Returns a delta that rebuilds TARGET from BASE, or null if it would
+     *  be longer than LIMIT bytes. */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int pending = 0;
+        int t = 0;
+        while (t + BLOCK <= target.length) {
+            int candidate = table[hash(target, t) & mask] - 1;
+            int length = candidate < 0 ? 0 : matchLength(base, candidate, target, t);
+            if (length < BLOCK) {
+                t += 1;
+                continue;
+            }
+            /* Extend the match backwards into the pending literals. */
+            while (candidate > 0 && t > pending
+                   && base[candidate - 1] == target[t - 1]) {
+                candidate -= 1;
+                t -= 1;
+                length += 1;
+            }
+            writeInserts(out, target, pending, t);
+            out.write(COPY);
+            writeVarint(out, candidate);
+            writeVarint(out, length);
+            t += length;
+            pending = t;
+            if (out.size() > limit) {
+                return null;
+            }
+        }
+        writeInserts(out, target, pending, target.length);
+        return out.size() > limit ? null : out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying DELTA to BASE.  Throws
+     *  IllegalArgumentException if DELTA does not apply to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        if (readVarint(in) != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] target = new byte[(int) readVarint(in)];
+        int t = 0;
+        while (in.hasRemaining()) {
+            int op = in.get() & 0xff;
+            if (op == COPY) {
+                int offset = (int) readVarint(in);
+                int length = (int) readVarint(in);
+                System.arraycopy(base, offset, target, t, length);
+                t += length;
+            } else {
+                in.get(target, t, op);
+                t += op;
+            }
+        }
+        if (t != target.length) {
+            throw new IllegalArgumentException("truncated delta");
+        }
+        return target;
+    }
+
+    /** Returns the length of the target that DELTA rebuilds, read from its
+     *  header. */
+    static long targetLength(byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        readVarint(in);
+        return readVarint(in);
+    }
+
+    /** Returns a hash table mapping block hashes of BASE to one plus the
+     *  offset of the last block with that hash. */
+    private static int[] index(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(1, base.length / BLOCK) * 2) * 2;
+        int[] table = new int[size];
+        for (int b = 0; b + BLOCK <= base.length; b += BLOCK) {
+            table[hash(base, b) & (size - 1)] = b + 1;
+        }
+        return table;
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at POS. */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the length of the common run of BASE from B and TARGET
+     *  from T. */
+    private static int matchLength(byte[] base, int b, byte[] target, int t) {
+        int n = 0;
+        while (b + n < base.length && t + n < target.length
+               && base[b + n] == target[t + n]) {
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Writes insert instructions for TARGET[FROM..TO) to OUT. */
+    private static void writeInserts(ByteArrayOutputStream out, byte[] target,
+                                     int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line diffs between two versions of a file.
+ *
+ *  Lines are compared as small integers: every distinct line is given an
+ *  id first (see ids), so comparing two lines is one int comparison.
+ *  Lines that occur only in one of the versions are changed whatever the
+ *  rest of the diff is, so they are set aside before the search; what is
+ *  left is diffed with Myers's algorithm in its linear-space form, which
+ *  bisects each range at the middle of a shortest edit script and works
+ *  on the halves in turn.  Its time is O((N + M) D) for N and M lines
+ *  and D differences, so for the usual edits it is close to linear even
+ *  on files of 100,000 lines, and it never needs more than O(N + M)
+ *  space.
+ *
+ *  Lines are kept as strings of one char per byte (ISO-8859-1), each with
+ *  its newline, so that joining them back gives the original bytes.
+ *
+ *  @author onemeter
+ */
+class Diff {
+
+    /** Lines of context shown around each change in unified diffs. */
+    static final int CONTEXT = 3;
+
+    /** Number of leading bytes searched for a NUL by isBinary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** One changed region: lines [beginA, endA) of the old version are
+     *  replaced by lines [beginB, endB) of the new one. */
+    static class Edit {
+        /** First old line replaced. */
+        final int beginA;
+        /** End of the old lines replaced. */
+        final int endA;
+        /** First new line inserted. */
+        final int beginB;
+        /** End of the new lines inserted. */
+        final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** Returns true iff CONTENTS look like a binary file, that is, have a
+     *  NUL byte near the start. */
+    static boolean isBinary(byte[] contents) {
+        int probe = Math.min(contents.length, BINARY_PROBE);
+        for (int k = 0; k < probe; k += 1) {
+            if (contents[k] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the lines of CONTENTS, each with its newline (the last one
+     *  may have none), one char per byte. */
+    static List<String> lines(byte[] contents) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int k = 0; k < contents.length; k += 1) {
+            if (contents[k] == '\n') {
+                result.add(new String(contents, start, k + 1 - start,
+                                      StandardCharsets.ISO_8859_1));
+                start = k + 1;
+            }
+        }
+        if (start < contents.length) {
+            result.add(new String(contents, start, contents.length - start,
+                                  StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    /** Returns the ids of LINES, giving each line not yet in TABLE the
+     *  next free id.  Lines diffed against each other must share a
+     *  TABLE. */
+    static int[] ids(List<String> lines, Map<String, Integer> table) {
+        int[] result = new int[lines.size()];
+        for (int k = 0; k < result.length; k += 1) {
+            Integer id = table.putIfAbsent(lines.get(k), table.size());
+            result[k] = id == null ? table.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Returns the edits that turn the lines A into the lines B, in
+     *  order. */
+    static List<Edit> diff(List<String> a, List<String> b) {
+        Map<String, Integer> table = new HashMap<>();
+        return diff(ids(a, table), ids(b, table));
+    }
+
+    /** Returns the edits that turn the line ids A into the line ids B, in
+     *  order and with no two adjacent. */
+    static List<Edit> diff(int[] a, int[] b) {
+        int size = 0;
+        for (int id : a) {
+            size = Math.max(size, id + 1);
+        }
+        for (int id : b) {
+            size = Math.max(size, id + 1);
+        }
+        int[] inA = new int[size];
+        int[] inB = new int[size];
+        for (int id : a) {
+            inA[id] += 1;
+        }
+        for (int id : b) {
+            inB[id] += 1;
+        }
+        int[] keptA = kept(a, inB);
+        int[] keptB = kept(b, inA);
+
+        // lines of the kept sequences outside every edit are unchanged,
+        // and pair up in order
+        boolean[] changedA = new boolean[a.length];
+        boolean[] changedB = new boolean[b.length];
+        Arrays.fill(changedA, true);
+        Arrays.fill(changedB, true);
+        int i = 0;
+        int j = 0;
+        for (Edit edit : myers(select(a, keptA), select(b, keptB))) {
+            for (; i < edit.beginA; i += 1, j += 1) {
+                changedA[keptA[i]] = false;
+                changedB[keptB[j]] = false;
+            }
+            i = edit.endA;
+            j = edit.endB;
+        }
+        for (; i < keptA.length; i += 1, j += 1) {
+            changedA[keptA[i]] = false;
+            changedB[keptB[j]] = false;
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        i = 0;
+        j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int beginA = i;
+            int beginB = j;
+            while (i < a.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < b.length && changedB[j]) {
+                j += 1;
+            }
+            edits.add(new Edit(beginA, i, beginB, j));
+        }
+        return edits;
+    }
+
+    /** Returns the indices of the lines of LINES that occur in the other
+     *  version, whose count of each line id is OTHERCOUNTS. */
+    private static int[] kept(int[] lines, int[] otherCounts) {
+        int n = 0;
+        int[] result = new int[lines.length];
+        for (int k = 0; k < lines.length; k += 1) {
+            if (otherCounts[lines[k]] > 0) {
+                result[n] = k;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the elements of LINES at the indices INDICES. */
+    private static int[] select(int[] lines, int[] indices) {
+        int[] result = new int[indices.length];
+        for (int k = 0; k < indices.length; k += 1) {
+            result[k] = lines[indices[k]];
+        }
+        return result;
+    }
+
+    /** Returns a shortest edit script from A to B, in order.  Ranges
+     *  still to be diffed are kept on a stack rather than recursed on, so
+     *  that the depth of the bisection does not matter. */
+    private static List<Edit> myers(int[] a, int[] b) {
+        List<Edit> edits = new ArrayList<>();
+        ArrayDeque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] {0, a.length, 0, b.length});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int aLo = range[0];
+            int aHi = range[1];
+            int bLo = range[2];
+            int bHi = range[3];
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                if (aLo < aHi || bLo < bHi) {
+                    add(edits, new Edit(aLo, aHi, bLo, bHi));
+                }
+                continue;
+            }
+            int[] split = bisect(a, aLo, aHi, b, bLo, bHi);
+            if (split == null || split[0] == aLo && split[1] == bLo
+                || split[0] == aHi && split[1] == bHi) {
+                add(edits, new Edit(aLo, aHi, bLo, bHi));
+                continue;
+            }
+            // the right half is pushed first so that the left one is done first
+            ranges.push(new int[] {split[0], aHi, split[1], bHi});
+            ranges.push(new int[] {aLo, split[0], bLo, split[1]});
+        }
+        return edits;
+    }
+
+    /** Appends EDIT to EDITS, joining it to the last edit if the two
+     *  touch. */
+    private static void add(List<Edit> edits, Edit edit) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == edit.beginA && last.endB == edit.beginB) {
+                edits.set(edits.size() - 1,
+                          new Edit(last.beginA, edit.endA, last.beginB, edit.endB));
+                return;
+            }
+        }
+        edits.add(edit);
+    }
+
+    /** Returns the point {x, y} at which a shortest edit script from
+     *  A[ALO..AHI) to B[BLO..BHI) crosses its middle, found by searching
+     *  forward from the start and backward from the end at once until
+     *  the two searches meet, or null if they do not.  The ranges must
+     *  not start or end with equal lines. */
+    private static int[] bisect(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        // forward[offset + k]: furthest x reached on diagonal x - y = k;
+        // backward likewise, counting from the ends
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = delta % 2 != 0;
+        int kStart1 = 0;
+        int kEnd1 = 0;
+        int kStart2 = 0;
+        int kEnd2 = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + kStart1; k1 <= d - kEnd1; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1]) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    kEnd1 += 2;
+                } else if (y1 > m) {
+                    kStart1 += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1
+                        && x1 >= n - backward[k2Offset]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + kStart2; k2 <= d - kEnd2; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1]) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - 1 - x2] == b[bHi - 1 - y2]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    kEnd2 += 2;
+                } else if (y2 > m) {
+                    kStart2 += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = x1 - (k1Offset - offset);
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the lines of a unified diff from the lines A to the lines
+     *  B, whose edits are EDITS: hunk headers, then context lines starting
+     *  with ' ', removed lines with '-' and added lines with '+', all
+     *  without newlines and decoded as UTF-8. */
+    static List<String> unified(List<String> a, List<String> b, List<Edit> edits) {
+        List<String> result = new ArrayList<>();
+        int first = 0;
+        while (first < edits.size()) {
+            // edits less than two contexts apart share a hunk
+            int last = first;
+            while (last + 1 < edits.size()
+                   && edits.get(last + 1).beginA - edits.get(last).endA <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int beginA = Math.max(0, edits.get(first).beginA - CONTEXT);
+            int beginB = Math.max(0, edits.get(first).beginB - CONTEXT);
+            int endA = Math.min(a.size(), edits.get(last).endA + CONTEXT);
+            int endB = Math.min(b.size(), edits.get(last).endB + CONTEXT);
+            result.add("@@ -" + range(beginA, endA) + " +" + range(beginB, endB) + " @@");
+            int i = beginA;
+            for (int e = first; e <= last; e += 1) {
+                Edit edit = edits.get(e);
+                for (; i < edit.beginA; i += 1) {
+                    addLine(result, ' ', a.get(i));
+                }
+                for (; i < edit.endA; i += 1) {
+                    addLine(result, '-', a.get(i));
+                }
+                for (int j = edit.beginB; j < edit.endB; j += 1) {
+                    addLine(result, '+', b.get(j));
+                }
+            }
+            for (; i < endA; i += 1) {
+                addLine(result, ' ', a.get(i));
+            }
+            first = last + 1;
+        }
+        return result;
+    }
+
+    /** Returns the hunk header range of lines [BEGIN, END). */
+    private static String range(int begin, int end) {
+        if (end - begin == 1) {
+            return Integer.toString(begin + 1);
+        }
+        return (end == begin ? begin : begin + 1) + "," + (end - begin);
+    }
+
+    /** Adds LINE to the unified diff RESULT, marked with PREFIX. */
+    private static void addLine(List<String> result, char prefix, String line) {
+        boolean newline = line.endsWith("\n");
+        String text = new String(line.substring(0, line.length() - (newline ? 1 : 0))
+                                     .getBytes(StandardCharsets.ISO_8859_1),
+                                 StandardCharsets.UTF_8);
+        result.add(prefix + text);
+        if (!newline) {
+            result.add("\\ No newline at end of file");
+        }
+    }
+}
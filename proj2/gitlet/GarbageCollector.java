@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Reachability-based garbage collection of the objects of a repository.
+ *
+ *  An object is reachable if it is a commit that some branch, local or
+ *  remote-tracking, points to or descends from, a tree or blob of such a
+ *  commit's snapshot, a blob staged for addition, or the base of a
+ *  reachable blob stored as a delta.  Everything else was left behind by
+ *  files that were added and then unstaged, by merge conflicts, or by
+ *  branches that were removed or reset.
+ *
+ *  Collection marks the reachable objects, through the reachability
+ *  bitmaps of the last collection or repack where it can (see
+ *  ReachabilityBitmaps), then deletes the unreachable loose objects
+ *  older than a grace period, and finally repacks every reachable
+ *  object into a single pack and writes bitmaps for it.  Unreachable packed objects
+ *  whose pack is older than the grace period are left out of the new
+ *  pack; younger ones are written back as loose objects dated as their
+ *  pack was, so that their grace period still runs from when they were
+ *  written.  Objects that an unreachable commit kept for its grace
+ *  period refers to are kept with it, however old, so that any commit a
+ *  repository has still comes with everything it refers to; transfers
+ *  rely on that (see Transfer).  The grace period protects objects
+ *  written by commands that do not hold the repository lock (see
+ *  RepoLock), such as older versions of gitlet.
+ *
+ *  Removing commits also removes them from the commit log and the
+ *  shallow boundary (see ShallowBoundary); the other files that describe
+ *  the set of commits (commit-graph, commit-bloom and commit-ids) are
+ *  rebuilt from the object store when next needed.
+ *
+ *  @author onemeter
+ */
+class GarbageCollector {
+
+    /** The outcome of a collection. */
+    static class Result {
+        /** Number of reachable objects. */
+        int reachable;
+        /** Number of unreachable objects removed. */
+        int removed;
+        /** Number of unreachable objects kept for their grace period. */
+        int kept;
+        /** Bytes of object storage before collection. */
+        long bytesBefore;
+        /** Bytes of object storage after collection. */
+        long bytesAfter;
+    }
+
+    /** Object types, with the directories of their loose objects. */
+    private static final byte[] TYPES = {
+        ObjectStore.BLOB, ObjectStore.DELTA, ObjectStore.TREE, ObjectStore.COMMIT
+    };
+
+    /** Collects the garbage of GITLETDIR, removing unreachable objects
+     *  last written more than GRACEMILLIS milliseconds ago.  Must be
+     *  called with the repository locked exclusively. */
+    static Result collect(File gitletDir, long graceMillis) {
+        Result result = new Result();
+        result.bytesBefore = storageSize(gitletDir);
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(gitletDir);
+        List<String> tips = ReachabilityBitmaps.refTips(gitletDir);
+        ReachabilityBitmaps.ObjectSet reachable = bitmaps.reachable(
+            tips, StagingArea.load(gitletDir).getAdditions().values(), (type, hash) -> false);
+        result.reachable = reachable.size();
+        ReachabilityBitmaps.ObjectSet kept = keptWith(gitletDir, bitmaps, reachable, cutoff);
+
+        Set<String> unreachable = new HashSet<>();
+        boolean removedCommits = false;
+        for (byte type : TYPES) {
+            File dir = ObjectStore.looseDir(gitletDir, type);
+            List<String> loose = plainFilenamesIn(dir);
+            for (String hash : loose == null ? List.<String>of() : loose) {
+                if (reachable.contains(hash) || !isUid(hash)) {
+                    continue;
+                }
+                File object = join(dir, hash);
+                if (!kept.contains(hash) && object.lastModified() <= cutoff
+                    && object.delete()) {
+                    result.removed += 1;
+                    removedCommits |= type == ObjectStore.COMMIT;
+                } else {
+                    unreachable.add(hash);
+                    result.kept += 1;
+                }
+            }
+        }
+        for (PackFile pack : ObjectStore.packs(gitletDir)) {
+            long written = pack.getPackFile().lastModified();
+            for (int k = 0; k < pack.size(); k += 1) {
+                String hash = pack.hashAt(k);
+                if (reachable.contains(hash) || !unreachable.add(hash)) {
+                    continue;
+                }
+                PackFile.Entry entry = pack.entryAt(k);
+                if (!kept.contains(hash) && written <= cutoff) {
+                    result.removed += 1;
+                    removedCommits |= entry.type == ObjectStore.COMMIT;
+                } else {
+                    // keep it loose, dated as its pack
+                    File dir = ObjectStore.looseDir(gitletDir, entry.type);
+                    dir.mkdir();
+                    File object = join(dir, hash);
+                    if (!object.isFile()) {
+                        writeContents(object, pack.read(entry));
+                        object.setLastModified(written);
+                    }
+                    result.kept += 1;
+                }
+            }
+        }
+        ObjectStore.pack(gitletDir, true, unreachable);
+
+        if (removedCommits) {
+            join(gitletDir, "commit-graph").delete();
+            join(gitletDir, "commit-bloom").delete();
+            join(gitletDir, "commit-ids").delete();
+            CommitIndex.load(gitletDir);
+            Set<String> commits = new HashSet<>(ObjectStore.list(gitletDir, ObjectStore.COMMIT));
+            CommitLog.load(gitletDir).retain(commits);
+            ShallowBoundary.retain(gitletDir, commits);
+        }
+        ReachabilityBitmaps.write(gitletDir, tips);
+        result.bytesAfter = storageSize(gitletDir);
+        return result;
+    }
+
+    /** Returns the objects of GITLETDIR, which has BITMAPS, that are not
+     *  in REACHABLE but that an unreachable commit written after CUTOFF
+     *  refers to. */
+    private static ReachabilityBitmaps.ObjectSet keptWith(
+            File gitletDir, ReachabilityBitmaps bitmaps,
+            ReachabilityBitmaps.ObjectSet reachable, long cutoff) {
+        List<String> young = new ArrayList<>();
+        File dir = ObjectStore.looseDir(gitletDir, ObjectStore.COMMIT);
+        List<String> loose = plainFilenamesIn(dir);
+        for (String hash : loose == null ? List.<String>of() : loose) {
+            if (isUid(hash) && !reachable.contains(hash)
+                && join(dir, hash).lastModified() > cutoff) {
+                young.add(hash);
+            }
+        }
+        for (PackFile pack : ObjectStore.packs(gitletDir)) {
+            if (pack.getPackFile().lastModified() > cutoff) {
+                for (String hash : pack.hashes(ObjectStore.COMMIT)) {
+                    if (!reachable.contains(hash)) {
+                        young.add(hash);
+                    }
+                }
+            }
+        }
+        return bitmaps.reachable(young, List.of(), (type, hash) -> reachable.contains(hash));
+    }
+
+    /** Returns the total size of the loose and packed objects of
+     *  GITLETDIR. */
+    private static long storageSize(File gitletDir) {
+        long size = 0;
+        for (byte type : TYPES) {
+            size += directorySize(ObjectStore.looseDir(gitletDir, type));
+        }
+        return size + directorySize(ObjectStore.packDir(gitletDir));
+    }
+
+    /** Returns the total size of the plain files in DIR. */
+    private static long directorySize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+}
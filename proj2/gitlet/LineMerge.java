@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Three-way merges of text files, line by line.
+ *
+ *  The current ("ours") and given ("theirs") versions are each diffed
+ *  against the split point's version (the base).  Changes whose ranges of
+ *  base lines overlap or touch are grouped; a group changed by one side
+ *  only takes that side's lines, and so does a group both sides changed
+ *  the same way.  Any other group is a conflict, written between the
+ *  same markers gitlet has always used, after setting aside the lines at
+ *  its start and end that both sides agree on.  Lines outside every
+ *  group are the base's.
+ *
+ *  @author onemeter
+ */
+class LineMerge {
+
+    /** Line before the current version of a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n";
+
+    /** Line between the two versions of a conflict. */
+    static final String SEPARATOR = "=======\n";
+
+    /** Line after the given version of a conflict. */
+    static final String THEIRS = ">>>>>>>\n";
+
+    /** Largest version of a file that is merged line by line.  Files with
+     *  a larger or binary version are conflicts as a whole. */
+    static final int MAX_SIZE = 16 << 20;
+
+    /** The merged file. */
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /** Number of conflicts written to out. */
+    private int conflicts;
+
+    /** Returns the merge of OURS and THEIRS, two versions of the file
+     *  whose version at the split point is BASE. */
+    static LineMerge merge(byte[] base, byte[] ours, byte[] theirs) {
+        List<String> baseLines = Diff.lines(base);
+        List<String> ourLines = Diff.lines(ours);
+        List<String> theirLines = Diff.lines(theirs);
+        Map<String, Integer> table = new HashMap<>();
+        int[] baseIds = Diff.ids(baseLines, table);
+        List<Diff.Edit> ourEdits = Diff.diff(baseIds, Diff.ids(ourLines, table));
+        List<Diff.Edit> theirEdits = Diff.diff(baseIds, Diff.ids(theirLines, table));
+
+        LineMerge result = new LineMerge();
+        int i = 0;
+        int j = 0;
+        int done = 0;
+        // how far ours and theirs are shifted against the base before the
+        // next group
+        int ourShift = 0;
+        int theirShift = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            int lo = Math.min(
+                i < ourEdits.size() ? ourEdits.get(i).beginA : Integer.MAX_VALUE,
+                j < theirEdits.size() ? theirEdits.get(j).beginA : Integer.MAX_VALUE);
+            int hi = lo;
+            int ourStart = lo + ourShift;
+            int theirStart = lo + theirShift;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            while (true) {
+                if (i < ourEdits.size() && ourEdits.get(i).beginA <= hi) {
+                    Diff.Edit edit = ourEdits.get(i);
+                    hi = Math.max(hi, edit.endA);
+                    ourShift += (edit.endB - edit.beginB) - (edit.endA - edit.beginA);
+                    oursChanged = true;
+                    i += 1;
+                } else if (j < theirEdits.size() && theirEdits.get(j).beginA <= hi) {
+                    Diff.Edit edit = theirEdits.get(j);
+                    hi = Math.max(hi, edit.endA);
+                    theirShift += (edit.endB - edit.beginB) - (edit.endA - edit.beginA);
+                    theirsChanged = true;
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            int ourEnd = hi + ourShift;
+            int theirEnd = hi + theirShift;
+
+            result.write(baseLines, done, lo);
+            if (!theirsChanged) {
+                result.write(ourLines, ourStart, ourEnd);
+            } else if (!oursChanged) {
+                result.write(theirLines, theirStart, theirEnd);
+            } else {
+                result.conflict(ourLines, ourStart, ourEnd, theirLines, theirStart, theirEnd);
+            }
+            done = hi;
+        }
+        result.write(baseLines, done, baseLines.size());
+        return result;
+    }
+
+    /** Returns the merged file. */
+    byte[] contents() {
+        return out.toByteArray();
+    }
+
+    /** Returns the number of conflicts in the merged file. */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /** Writes OURS[OURSTART..OUREND) and THEIRS[THEIRSTART..THEIREND),
+     *  lines both sides changed, as a conflict unless they are the
+     *  same. */
+    private void conflict(List<String> ours, int ourStart, int ourEnd,
+                          List<String> theirs, int theirStart, int theirEnd) {
+        while (ourStart < ourEnd && theirStart < theirEnd
+               && ours.get(ourStart).equals(theirs.get(theirStart))) {
+            write(ours, ourStart, ourStart + 1);
+            ourStart += 1;
+            theirStart += 1;
+        }
+        int common = 0;
+        while (ourEnd - common > ourStart && theirEnd - common > theirStart
+               && ours.get(ourEnd - common - 1).equals(theirs.get(theirEnd - common - 1))) {
+            common += 1;
+        }
+        if (ourStart < ourEnd - common || theirStart < theirEnd - common) {
+            write(OURS);
+            writeSide(ours, ourStart, ourEnd - common);
+            write(SEPARATOR);
+            writeSide(theirs, theirStart, theirEnd - common);
+            write(THEIRS);
+            conflicts += 1;
+        }
+        write(ours, ourEnd - common, ourEnd);
+    }
+
+    /** Writes LINES[BEGIN..END) as one side of a conflict, ending it with
+     *  a newline so that the next marker starts a line. */
+    private void writeSide(List<String> lines, int begin, int end) {
+        write(lines, begin, end);
+        if (end > begin && !lines.get(end - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+
+    /** Writes LINES[BEGIN..END). */
+    private void write(List<String> lines, int begin, int end) {
+        for (int k = begin; k < end; k += 1) {
+            write(lines.get(k));
+        }
+    }
+
+    /** Writes LINE, one byte per char. */
+    private void write(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -1,110 +1,385 @@
 package gitlet;
 
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
+ * Main only parses the command line and prints the results of the
+ * Repository rooted at the current directory.
+ *
  * @author onemeter
  */
 public class Main {
 
+    /** How long gc keeps unreachable objects when not told otherwise, in
+     *  seconds: two weeks, as git does. */
+    static final long GC_GRACE_SECONDS = 14 * 24 * 60 * 60;
+
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * init
      * add filename
+     *
+     * Commands are forwarded to the repository's daemon when one is
+     * running, and run in this process otherwise.
      */
     public static void main(String[] args) {
-        try {
-            if (args.length == 0) {
-                throw Utils.error("Please enter a command.");
-            }
-            String firstArg = args[0];
-            switch (firstArg) {
-                case "init":
-                    Utils.validateNumArgs(args, 1);
-                    Repository.init();
-                    break;
-                case "add":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.add(args[1]);
-                    break;
-                case "commit":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.commit(args[1], null);
-                    break;
-                case "checkout":
-                    if (args.length == 3 && args[1].equals("--")) {
-                        Repository.checkoutHeadCommitFile(args[2]);
-                    } else if (args.length == 4 && args[2].equals("--")) {
-                        Repository.checkoutCommitFile(args[1], args[3]);
-                    } else if (args.length == 2) {
-                        Repository.checkoutBranch(args[1]);
-                    } else {
-                        throw Utils.error("Incorrect operands.");
-                    }
-                    break;
-                case "log":
-                    Utils.validateNumArgs(args, 1);
-                    Repository.log();
-                    break;
-                case "rm":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.rm(args[1]);
-                    break;
-                case "global-log":
-                    Utils.validateNumArgs(args, 1);
-                    Repository.globalLog();
-                    break;
-                case "find":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.find(args[1]);
-                    break;
-                case "status":
-                    Utils.validateNumArgs(args, 1);
-                    Repository.status();
-                    break;
-                case "branch":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.branch(args[1]);
-                    break;
-                case "rm-branch":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.rmBranch(args[1]);
-                    break;
-                case "reset":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.reset(args[1]);
-                    break;
-                case "merge":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.merge(args[1]);
-                    break;
-                case "add-remote":
-                    Utils.validateNumArgs(args, 3);
-                    Repository.addRemote(args[1], args[2]);
-                    break;
-                case "rm-remote":
-                    Utils.validateNumArgs(args, 2);
-                    Repository.rmRemote(args[1]);
-                    break;
-                case "push":
-                    Utils.validateNumArgs(args, 3);
-                    Repository.push(args[1], args[2]);
-                    break;
-                case "fetch":
-                    Utils.validateNumArgs(args, 3);
-                    Repository.fetch(args[1], args[2]);
-                    break;
-                case "pull":
-                    Utils.validateNumArgs(args, 3);
-                    Repository.pull(args[1], args[2]);
-                    break;
-                default:
-                    throw Utils.error("No command with that name exists.");
+        Repository repo = new Repository(new File(System.getProperty("user.dir")));
+        if (args.length > 0 && !args[0].equals("daemon") && !args[0].equals("serve")) {
+            Integer status = Daemon.forward(repo.getGitletDir(), args);
+            if (status != null) {
+                System.exit(status);
             }
+        }
+        try {
+            run(repo, args);
         } catch (GitletException e) {
             System.out.println(e.getMessage());
             System.exit(0);
         }
+    }
+
+    /** Runs the command ARGS on REPO, printing its results, and throwing
+     *  a GitletException for any error to be reported to the user.  The
+     *  repository stays locked against gc while the command runs. */
+    static void run(Repository repo, String[] args) {
+        if (args.length == 0) {
+            throw Utils.error("Please enter a command.");
+        }
+        switch (args[0]) {
+            case "gc":
+            case "pack":
+            case "repack":
+            case "daemon":
+            case "serve":
+                // gc and packing lock the repository themselves; the
+                // daemon and the server, per command and per connection
+                runLocked(repo, args);
+                break;
+            default:
+                RepoLock.withShared(repo.getGitletDir(), () -> {
+                    runLocked(repo, args);
+                    return null;
+                });
+        }
+    }
+
+    /** Runs the command ARGS on REPO with the repository locked as the
+     *  command requires. */
+    private static void runLocked(Repository repo, String[] args) {
+        String firstArg = args[0];
+        switch (firstArg) {
+            case "init":
+                Utils.validateNumArgs(args, 1);
+                repo.init();
+                break;
+            case "add":
+                Utils.validateNumArgs(args, 2);
+                repo.add(args[1]);
+                break;
+            case "commit":
+                Utils.validateNumArgs(args, 2);
+                repo.commit(args[1]);
+                break;
+            case "checkout":
+                if (args.length == 3 && args[1].equals("--")) {
+                    repo.checkoutHeadCommitFile(args[2]);
+                } else if (args.length == 4 && args[2].equals("--")) {
+                    repo.checkoutCommitFile(args[1], args[3]);
+                } else if (args.length == 2) {
+                    printCheckout(repo.checkoutBranch(args[1]));
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "log":
+                if (args.length == 1) {
+                    printLog(repo.log());
+                } else if (args.length == 3 && args[1].equals("--")) {
+                    printLog(repo.log(args[2]));
+                    if (Boolean.getBoolean("gitlet.verbose")) {
+                        printFilterStats(repo.getFilterStats());
+                    }
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "rm":
+                Utils.validateNumArgs(args, 2);
+                repo.rm(args[1]);
+                break;
+            case "global-log":
+                Utils.validateNumArgs(args, 1);
+                printLog(repo.globalLog());
+                break;
+            case "find":
+                Utils.validateNumArgs(args, 2);
+                List<String> found = repo.find(args[1]);
+                if (found.isEmpty()) {
+                    throw Utils.error("Found no commit with that message.");
+                }
+                for (String commitHash : found) {
+                    System.out.println(commitHash);
+                }
+                break;
+            case "status":
+                Utils.validateNumArgs(args, 1);
+                printStatus(repo.status());
+                break;
+            case "diff":
+                if (args.length > 3) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                printDiff(repo.diff(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null));
+                break;
+            case "branch":
+                Utils.validateNumArgs(args, 2);
+                repo.branch(args[1]);
+                break;
+            case "rm-branch":
+                Utils.validateNumArgs(args, 2);
+                repo.rmBranch(args[1]);
+                break;
+            case "reset":
+                Utils.validateNumArgs(args, 2);
+                repo.reset(args[1]);
+                break;
+            case "merge":
+                Utils.validateNumArgs(args, 2);
+                printMerge(repo.merge(args[1]));
+                if (Boolean.getBoolean("gitlet.verbose")) {
+                    printCacheStats(repo.getCacheStats());
+                }
+                break;
+            case "pack":
+                Utils.validateNumArgs(args, 1);
+                repo.pack(false);
+                break;
+            case "repack":
+                Utils.validateNumArgs(args, 1);
+                repo.pack(true);
+                break;
+            case "gc":
+                if (args.length == 1) {
+                    printGc(repo.gc(GC_GRACE_SECONDS));
+                } else if (args.length == 2 && args[1].matches("[0-9]{1,9}")) {
+                    printGc(repo.gc(Long.parseLong(args[1])));
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "stats":
+                Utils.validateNumArgs(args, 1);
+                printStats(repo.stats());
+                if (Boolean.getBoolean("gitlet.verbose")) {
+                    printCacheStats(repo.getCacheStats());
+                }
+                break;
+            case "add-remote":
+                Utils.validateNumArgs(args, 3);
+                repo.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Utils.validateNumArgs(args, 2);
+                repo.rmRemote(args[1]);
+                break;
+            case "push":
+                Utils.validateNumArgs(args, 3);
+                printTransfer(repo.push(args[1], args[2]));
+                break;
+            case "fetch":
+                if (args.length == 3) {
+                    printTransfer(repo.fetch(args[1], args[2]));
+                } else if (args.length == 5 && args[1].equals("--depth")
+                        && args[2].matches("[0-9]{1,9}") && Integer.parseInt(args[2]) > 0) {
+                    printTransfer(repo.fetch(args[3], args[4], Integer.parseInt(args[2])));
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "pull":
+                Utils.validateNumArgs(args, 3);
+                printMerge(repo.pull(args[1], args[2]));
+                break;
+            case "daemon":
+                if (args.length == 1) {
+                    repo.daemon(Daemon.DEFAULT_IDLE_SECONDS);
+                } else if (args.length == 2 && args[1].matches("[0-9]{1,9}")) {
+                    repo.daemon(Long.parseLong(args[1]));
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "serve":
+                // serve [--listen ADDRESS] [PORT]
+                String address = null;
+                int next = 1;
+                if (args.length >= 3 && args[1].equals("--listen")) {
+                    address = args[2];
+                    next = 3;
+                }
+                if (args.length == next) {
+                    repo.serve(address, RemoteProtocol.DEFAULT_PORT);
+                } else if (args.length == next + 1 && args[next].matches("[0-9]{1,5}")
+                        && Integer.parseInt(args[next]) <= 65535) {
+                    repo.serve(address, Integer.parseInt(args[next]));
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            default:
+                throw Utils.error("No command with that name exists.");
+        }
+    }
+
+    /** Prints ENTRIES as log and global-log do. */
+    private static void printLog(List<Repository.LogEntry> entries) {
+        for (Repository.LogEntry entry : entries) {
+            System.out.println("===");
+            System.out.println("commit " + entry.getHash());
+            if (entry.getSecondParent() != null) {
+                System.out.println("Merge: " + entry.getParent().substring(0, 7) + " "
+                        + entry.getSecondParent().substring(0, 7));
+            }
+            System.out.println("Date: " + entry.getTimestamp());
+            System.out.println(entry.getMessage());
+            System.out.println();
+        }
+    }
+
+    /** Prints STATUS. */
+    private static void printStatus(Repository.Status status) {
+        System.out.println("=== Branches ===");
+        for (String branch : status.getBranches()) {
+            if (branch.equals(status.getCurrentBranch())) {
+                System.out.println("*" + branch);
+            } else {
+                System.out.println(branch);
+            }
+        }
+        System.out.println();
+        printSection("Staged Files", status.getStaged());
+        printSection("Removed Files", status.getRemoved());
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> file : status.getModifications().entrySet()) {
+            System.out.println(file.getKey() + " (" + file.getValue() + ")");
+        }
+        System.out.println();
+        printSection("Untracked Files", status.getUntracked());
+    }
+
+    /** Prints the status section TITLE listing FILES. */
+    private static void printSection(String title, List<String> files) {
+        System.out.println("=== " + title + " ===");
+        for (String file : files) {
+            System.out.println(file);
+        }
+        System.out.println();
+    }
+
+    /** Prints DIFFS as a unified diff. */
+    private static void printDiff(List<Repository.FileDiff> diffs) {
+        for (Repository.FileDiff diff : diffs) {
+            String oldName = "a/" + diff.getPath();
+            String newName = "b/" + diff.getPath();
+            System.out.println("diff --git " + oldName + " " + newName);
+            if (diff.getOldHash() == null) {
+                System.out.println("new file");
+                oldName = "/dev/null";
+            } else if (diff.getNewHash() == null) {
+                System.out.println("deleted file");
+                newName = "/dev/null";
+            }
+            if (diff.isBinary()) {
+                System.out.println("Binary files " + oldName + " and " + newName + " differ");
+                continue;
+            }
+            System.out.println("--- " + oldName);
+            System.out.println("+++ " + newName);
+            for (String line : diff.getLines()) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    /** Prints the counts of RESULT if asked to by the gitlet.verbose
+     *  system property. */
+    private static void printCheckout(Repository.CheckoutResult result) {
+        if (Boolean.getBoolean("gitlet.verbose")) {
+            Utils.message("%d deleted, %d created, %d overwritten", result.getDeleted(),
+                    result.getCreated(), result.getOverwritten());
+        }
+    }
+
+    /** Prints what the user needs to know about a merge that ended as
+     *  RESULT. */
+    private static void printMerge(Repository.MergeResult result) {
+        switch (result) {
+            case CONFLICTED:
+                System.out.println("Encountered a merge conflict.");
+                break;
+            case FAST_FORWARDED:
+                System.out.println("Current branch fast-forwarded.");
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Prints how much a push or fetch copied, as RESULT describes, if
+     *  asked to by the gitlet.verbose system property. */
+    private static void printTransfer(Repository.TransferResult result) {
+        if (Boolean.getBoolean("gitlet.verbose")) {
+            Utils.message("%d objects, %d bytes transferred", result.getObjects(),
+                    result.getBytes());
+        }
+    }
+
+    /** Prints what gc did, as RESULT describes. */
+    private static void printGc(Repository.GcResult result) {
+        System.out.println("Removed " + result.getRemoved() + " unreachable objects, reclaimed "
+                + result.getReclaimedBytes() + " bytes.");
+        if (Boolean.getBoolean("gitlet.verbose")) {
+            Utils.message("%d reachable, %d unreachable kept for the grace period",
+                    result.getReachable(), result.getKept());
+        }
+    }
+
+    /** Prints STATS. */
+    private static void printStats(Repository.BlobStats stats) {
+        System.out.println("Blobs: " + (stats.getWholeBlobs() + stats.getDeltaBlobs()) + " ("
+                + stats.getWholeBlobs() + " whole, " + stats.getDeltaBlobs() + " delta)");
+        System.out.println("Content size: " + stats.getContentBytes() + " bytes");
+        System.out.println("Stored size: " + stats.getStoredBytes() + " bytes");
+        System.out.printf("Saved by deltas: %d bytes (%.1f%%)%n", stats.getSavedBytes(),
+                stats.getContentBytes() == 0
+                        ? 0.0 : 100.0 * stats.getSavedBytes() / stats.getContentBytes());
+    }
+
+    /** Prints the path filter counters STATS. */
+    private static void printFilterStats(Repository.FilterStats stats) {
+        Utils.message("Path filters: %d commits, %d skipped, %d checked, "
+                + "%d false positives (%.1f%%)", stats.getCommits(), stats.getSkipped(),
+                stats.getChecked(), stats.getFalsePositives(),
+                stats.getSkipped() + stats.getFalsePositives() == 0 ? 0.0
+                        : 100.0 * stats.getFalsePositives()
+                        / (stats.getSkipped() + stats.getFalsePositives()));
+    }
 
+    /** Prints the cache counters STATS. */
+    private static void printCacheStats(Repository.CacheStats stats) {
+        Utils.message("Commit cache: %d hits, %d misses, %d evicted, %d bytes",
+                stats.getCommitHits(), stats.getCommitMisses(),
+                stats.getCommitEvictions(), stats.getCommitBytes());
+        Utils.message("Snapshot cache: %d hits, %d misses, %d evicted, %d bytes",
+                stats.getSnapshotHits(), stats.getSnapshotMisses(),
+                stats.getSnapshotEvictions(), stats.getSnapshotBytes());
+        Utils.message("Blob cache: %d hits, %d misses, %d evicted, %d bytes",
+                stats.getBlobHits(), stats.getBlobMisses(),
+                stats.getBlobEvictions(), stats.getBlobBytes());
     }
 }
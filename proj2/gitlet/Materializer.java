@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static gitlet.Utils.*;
+
+/** Writes files from the object store out to the working directory,
+ *  several at a time.
+ *
+ *  A batch of files is split among a fixed pool of threads, each of which
+ *  reads blobs and writes working files independently; the object store
+ *  is safe to read from several threads at once.  The number of threads
+ *  is given by the system property PARALLELISM_PROPERTY and defaults to
+ *  the number of processors.  Small batches, or a parallelism of 1, are
+ *  written on the calling thread.
+ *
+ *  Errors are deterministic: every file of a batch is attempted even if
+ *  some fail, and the error reported is that of the first failed path in
+ *  sorted order, whatever order the threads happened to run in.
+ *
+ *  @author onemeter
+ */
+class Materializer {
+
+    /** System property giving the number of threads to write with. */
+    static final String PARALLELISM_PROPERTY = "gitlet.parallelism";
+
+    /** Batches with fewer files than this are written on the calling
+     *  thread, where starting threads would cost more than it saves. */
+    private static final int MIN_PARALLEL_FILES = 16;
+
+    /** Writes the blob FILES.get(P) of GITLETDIR to the file P under
+     *  WORKDIR, creating directories as needed, for every path P in FILES.
+     *  Throws the exception of the first path in sorted order that could
+     *  not be written, after attempting all of them. */
+    static void materialize(File gitletDir, File workDir, Map<String, String> files) {
+        SortedMap<String, String> sorted = new TreeMap<>(files);
+        int threads = Math.min(parallelism(), sorted.size());
+        if (threads <= 1 || sorted.size() < MIN_PARALLEL_FILES) {
+            RuntimeException first = null;
+            for (Map.Entry<String, String> file : sorted.entrySet()) {
+                try {
+                    write(gitletDir, workDir, file);
+                } catch (RuntimeException excp) {
+                    first = first == null ? excp : first;
+                }
+            }
+            if (first != null) {
+                throw first;
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, String> file : sorted.entrySet()) {
+            tasks.add(() -> {
+                write(gitletDir, workDir, file);
+                return null;
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "gitlet-materialize");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            /* invokeAll returns once every task is done, with the futures
+             * in the order of TASKS, that is, of the sorted paths. */
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException excp) {
+                    Throwable cause = excp.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalArgumentException(cause);
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Writes the blob FILE.getValue() of GITLETDIR to the file
+     *  FILE.getKey() under WORKDIR. */
+    private static void write(File gitletDir, File workDir, Map.Entry<String, String> file) {
+        ObjectStore.checkoutBlob(gitletDir, file.getValue(), join(workDir, file.getKey()));
+    }
+
+    /** Returns the number of threads to write with. */
+    static int parallelism() {
+        int result = Integer.getInteger(PARALLELISM_PROPERTY,
+                                        Runtime.getRuntime().availableProcessors());
+        return Math.max(result, 1);
+    }
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** What a merge must do to each file, decided from the snapshots of the
+ *  split point, the current commit and the given (branch) commit before
+ *  anything is written.
+ *
+ *  A file changed only in the branch since the split point is taken from
+ *  the branch, a file the branch deleted and the current commit left
+ *  alone is removed, and a file changed differently in both (including
+ *  deleted in one and changed in the other) must be merged.  Everything
+ *  else stays as in the current commit and does not appear in the plan.
+ *  Planning only compares blob hashes, so it reads no files, and its
+ *  actions can then be applied in bulk.
+ *
+ *  @author onemeter
+ */
+class MergePlan {
+
+    /** Action on one file. */
+    enum Action {
+        /** Check out and stage the branch's version. */
+        TAKE,
+        /** Delete and stage for removal. */
+        REMOVE,
+        /** Merge both versions, with conflict markers where they cannot be
+         *  merged, and stage the result. */
+        MERGE
+    }
+
+    /** One planned file: its action and the blob hashes of the split
+     *  point, current and branch versions (null where absent). */
+    static class Step {
+        /** What to do. */
+        final Action action;
+        /** Blob hash of the split point's version, or null. */
+        final String split;
+        /** Blob hash of the current version, or null. */
+        final String current;
+        /** Blob hash of the branch version, or null. */
+        final String branch;
+
+        Step(Action action, String split, String current, String branch) {
+            this.action = action;
+            this.split = split;
+            this.current = current;
+            this.branch = branch;
+        }
+    }
+
+    /** Planned files, by path. */
+    private final TreeMap<String, Step> steps = new TreeMap<>();
+
+    /** Returns the plan for merging the snapshot BRANCH into CURRENT,
+     *  whose split point has snapshot SPLIT.  Each maps paths to blob
+     *  hashes. */
+    static MergePlan plan(Map<String, String> split, Map<String, String> current,
+                          Map<String, String> branch) {
+        MergePlan result = new MergePlan();
+        for (Map.Entry<String, String> file : split.entrySet()) {
+            String path = file.getKey();
+            String splitHash = file.getValue();
+            String currentHash = current.get(path);
+            String branchHash = branch.get(path);
+            boolean changedInCurrent = !splitHash.equals(currentHash);
+            boolean changedInBranch = !splitHash.equals(branchHash);
+            if (!changedInBranch) {
+                continue;
+            }
+            if (!changedInCurrent) {
+                result.add(path, branchHash == null ? Action.REMOVE : Action.TAKE,
+                           splitHash, currentHash, branchHash);
+            } else if (currentHash != null || branchHash != null) {
+                if (currentHash == null || !currentHash.equals(branchHash)) {
+                    result.add(path, Action.MERGE, splitHash, currentHash, branchHash);
+                }
+            }
+        }
+        for (Map.Entry<String, String> file : branch.entrySet()) {
+            String path = file.getKey();
+            if (split.containsKey(path)) {
+                continue;
+            }
+            String currentHash = current.get(path);
+            if (currentHash == null) {
+                result.add(path, Action.TAKE, null, null, file.getValue());
+            } else if (!currentHash.equals(file.getValue())) {
+                result.add(path, Action.MERGE, null, currentHash, file.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Adds a step ACTION for PATH whose split point, current and branch
+     *  versions are SPLIT, CURRENT and BRANCH. */
+    private void add(String path, Action action, String split, String current,
+                     String branch) {
+        steps.put(path, new Step(action, split, current, branch));
+    }
+
+    /** Returns the planned files by path, in path order. */
+    SortedMap<String, Step> steps() {
+        return Collections.unmodifiableSortedMap(steps);
+    }
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A bounded cache of objects by hash that evicts the least recently used
+ *  ones once the total of their sizes would exceed its capacity.
+ *
+ *  Sizes are whatever the caller says they are, normally the number of
+ *  bytes an object was read from, so a few large objects cannot crowd out
+ *  memory the way a count-bounded cache would let them.  An object larger
+ *  than the whole capacity is never kept.  The cache counts its hits,
+ *  misses and evictions, and is safe to use from several threads.
+ *
+ *  @author onemeter
+ */
+class ObjectCache<V> {
+
+    /** A cached object and its size. */
+    private static class Slot<V> {
+        /** The object. */
+        final V value;
+        /** Its size. */
+        final long size;
+
+        Slot(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** Cached objects by hash, least recently used first. */
+    private final LinkedHashMap<String, Slot<V>> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Largest total size of the cached objects. */
+    private final long capacity;
+
+    /** Total size of the cached objects. */
+    private long size;
+
+    /** Number of lookups that found their object. */
+    private long hits;
+
+    /** Number of lookups that did not. */
+    private long misses;
+
+    /** Number of objects evicted to make room for others. */
+    private long evictions;
+
+    /** An empty cache holding objects of total size at most CAPACITY. */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Returns the object cached under HASH, or null if there is none. */
+    synchronized V get(String hash) {
+        Slot<V> slot = slots.get(hash);
+        if (slot == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return slot.value;
+    }
+
+    /** Caches VALUE, of size SIZE, under HASH, evicting the least recently
+     *  used objects as needed to stay within capacity. */
+    synchronized void put(String hash, V value, long size) {
+        if (size > capacity) {
+            return;
+        }
+        Slot<V> old = slots.put(hash, new Slot<>(value, size));
+        this.size += size - (old == null ? 0 : old.size);
+        Iterator<Slot<V>> eldest = slots.values().iterator();
+        while (this.size > capacity) {
+            Slot<V> evicted = eldest.next();
+            eldest.remove();
+            this.size -= evicted.size;
+            evictions += 1;
+        }
+    }
+
+    /** Returns the number of lookups that found their object. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns the number of objects evicted to make room for others. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the number of cached objects. */
+    synchronized int count() {
+        return slots.size();
+    }
+
+    /** Returns the total size of the cached objects. */
+    synchronized long size() {
+        return size;
+    }
+}
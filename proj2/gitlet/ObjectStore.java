@@ -0,0 +1,824 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** Content-addressed storage for the blobs and commits of a gitlet
+ *  repository.
+ *
+ *  Freshly written objects are loose: one file per object, named by its
+ *  SHA-1 hash, under objects/ (blobs), deltas/ (blobs stored as deltas,
+ *  see writeBlob), trees/ (trees) or commits/ (commits).  The pack
+ *  command moves loose objects into an append-only pack file under packs/
+ *  (see PackFile), and every read resolves a hash first against the loose
+ *  files and then against the pack indices.
+ *
+ *  Repositories of format FORMAT_DEFLATE (recorded in the "format" file)
+ *  store every object zlib-compressed, loose or packed; hashes are always
+ *  of the uncompressed contents.  Repositories without the marker predate
+ *  compression and are read and written uncompressed.
+ *
+ *  All methods take the .gitlet directory they operate on, so that the
+ *  same code serves the local repository and local remotes.
+ *
+ *  @author onemeter
+ */
+class ObjectStore {
+
+    /** Type code of blobs (file contents). */
+    static final byte BLOB = 1;
+
+    /** Type code of commits (see Commit.encode). */
+    static final byte COMMIT = 2;
+
+    /** Type code of blobs stored as a delta against another blob.  Such a
+     *  blob is the raw hash of its base, its depth in the delta chain and
+     *  a Delta; it is read back, transparently, as a BLOB. */
+    static final byte DELTA = 3;
+
+    /** Type code of trees, the directory listings of snapshots (see
+     *  Tree). */
+    static final byte TREE = 4;
+
+    /** Longest chain of deltas allowed before a blob is stored whole. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Smallest blob worth storing as a delta. */
+    static final int MIN_DELTA_SIZE = 512;
+
+    /** Largest blob that is considered for delta storage. */
+    static final int MAX_DELTA_SIZE = 16 << 20;
+
+    /** Largest blob kept in BLOB_CACHE. */
+    static final int MAX_CACHED_BLOB_SIZE = 64 << 10;
+
+    /** Largest total size of the blobs in BLOB_CACHE. */
+    static final long BLOB_CACHE_SIZE = 16 << 20;
+
+    /** Small blobs read recently by this process, by hash.  Blobs are
+     *  named by their contents, so one cache serves every repository.
+     *  Callers of read must not modify the arrays it returns. */
+    static final ObjectCache<byte[]> BLOB_CACHE = new ObjectCache<>(BLOB_CACHE_SIZE);
+
+    /** Name of the file holding the object format version. */
+    static final String FORMAT_FILE = "format";
+
+    /** Object format of repositories that store objects as is. */
+    static final int FORMAT_PLAIN = 1;
+
+    /** Object format of repositories that store objects deflated. */
+    static final int FORMAT_DEFLATE = 2;
+
+    /** Object format used for new repositories. */
+    static final int CURRENT_FORMAT = FORMAT_DEFLATE;
+
+    /** Object format of each .gitlet directory used in this process. */
+    private static final Map<File, Integer> FORMATS = new HashMap<>();
+
+    /** Open packs of each .gitlet directory used in this process. */
+    private static final Map<File, List<PackFile>> PACKS = new HashMap<>();
+
+    /** Returns the directory holding loose objects of type TYPE in
+     *  GITLETDIR. */
+    static File looseDir(File gitletDir, byte type) {
+        switch (type) {
+            case COMMIT:
+                return join(gitletDir, "commits");
+            case DELTA:
+                return join(gitletDir, "deltas");
+            case TREE:
+                return join(gitletDir, "trees");
+            default:
+                return join(gitletDir, "objects");
+        }
+    }
+
+    /** Returns the pack directory of GITLETDIR. */
+    static File packDir(File gitletDir) {
+        return join(gitletDir, "packs");
+    }
+
+    /** Returns true iff GITLETDIR contains an object of type TYPE whose
+     *  hash is HASH.  A BLOB may be stored whole or as a DELTA. */
+    static boolean contains(File gitletDir, byte type, String hash) {
+        return has(gitletDir, type, hash)
+                || (type == BLOB && has(gitletDir, DELTA, hash));
+    }
+
+    /** Returns the contents of the object of type TYPE whose hash is HASH
+     *  in GITLETDIR.  Throws IllegalArgumentException if there is none.
+     *  Small blobs come from and go to BLOB_CACHE, so the result must not
+     *  be modified. */
+    static byte[] read(File gitletDir, byte type, String hash) {
+        if (type == BLOB) {
+            byte[] cached = BLOB_CACHE.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] contents;
+        if (type == BLOB && isDelta(gitletDir, hash)) {
+            contents = readDeltified(gitletDir, hash);
+        } else {
+            byte[] stored = readStored(gitletDir, type, hash);
+            contents = isCompressed(gitletDir) ? decompress(stored) : stored;
+        }
+        if (type == BLOB && contents.length <= MAX_CACHED_BLOB_SIZE) {
+            BLOB_CACHE.put(hash, contents, contents.length);
+        }
+        return contents;
+    }
+
+    /** Returns a stream over the contents of the object of type TYPE whose
+     *  hash is HASH in GITLETDIR, inflating it as it is read.  Throws
+     *  IllegalArgumentException if there is none.  Small blobs come from
+     *  and go to BLOB_CACHE; larger ones are streamed. */
+    static InputStream open(File gitletDir, byte type, String hash) {
+        if (type == BLOB) {
+            byte[] cached = BLOB_CACHE.get(hash);
+            if (cached != null) {
+                return new ByteArrayInputStream(cached);
+            }
+            if (isDelta(gitletDir, hash)) {
+                byte[] contents = readDeltified(gitletDir, hash);
+                if (contents.length <= MAX_CACHED_BLOB_SIZE) {
+                    BLOB_CACHE.put(hash, contents, contents.length);
+                }
+                return new ByteArrayInputStream(contents);
+            }
+            InputStream in = openStored(gitletDir, BLOB, hash);
+            try {
+                byte[] head = in.readNBytes(MAX_CACHED_BLOB_SIZE + 1);
+                if (head.length <= MAX_CACHED_BLOB_SIZE) {
+                    in.close();
+                    BLOB_CACHE.put(hash, head, head.length);
+                    return new ByteArrayInputStream(head);
+                }
+                return new SequenceInputStream(new ByteArrayInputStream(head), in);
+            } catch (IOException excp) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    /* Already failing. */
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return openStored(gitletDir, type, hash);
+    }
+
+    /** Returns a stream over the contents of the object of type TYPE whose
+     *  hash is HASH in GITLETDIR as stored whole, inflating it as it is
+     *  read.  Throws IllegalArgumentException if there is none. */
+    private static InputStream openStored(File gitletDir, byte type, String hash) {
+        InputStream stored = null;
+        File loose = join(looseDir(gitletDir, type), hash);
+        if (loose.isFile()) {
+            try {
+                stored = new FileInputStream(loose);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else {
+            for (PackFile pack : packs(gitletDir)) {
+                PackFile.Entry entry = findIn(pack, type, hash);
+                if (entry != null) {
+                    stored = pack.open(entry);
+                    break;
+                }
+            }
+        }
+        if (stored == null) {
+            throw new IllegalArgumentException("no such object " + hash);
+        }
+        stored = new BufferedInputStream(stored);
+        return isCompressed(gitletDir) ? new InflaterInputStream(stored) : stored;
+    }
+
+    /** Returns the object of type TYPE whose hash is HASH in GITLETDIR
+     *  exactly as stored, compressed if the repository format says so.
+     *  Throws IllegalArgumentException if there is none. */
+    static byte[] readStored(File gitletDir, byte type, String hash) {
+        File loose = join(looseDir(gitletDir, type), hash);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        for (PackFile pack : packs(gitletDir)) {
+            PackFile.Entry entry = findIn(pack, type, hash);
+            if (entry != null) {
+                return pack.read(entry);
+            }
+        }
+        throw new IllegalArgumentException("no such object " + hash);
+    }
+
+    /** Copies the object of type TYPE whose hash is HASH from the
+     *  repository FROM to TO exactly as stored, which requires both to use
+     *  the same object format.  A loose object is hard-linked where the
+     *  file system allows it, and otherwise, like a packed one, copied
+     *  channel to channel, so that the contents never pass through the
+     *  Java heap.  The copy only appears once complete.  Returns the
+     *  number of bytes copied, 0 if TO already had the object loose. */
+    static long copyStored(File from, File to, byte type, String hash) {
+        File dir = looseDir(to, type);
+        dir.mkdir();
+        Path target = join(dir, hash).toPath();
+        File loose = join(looseDir(from, type), hash);
+        try {
+            if (loose.isFile()) {
+                try {
+                    Files.createLink(target, loose.toPath());
+                    return loose.length();
+                } catch (FileAlreadyExistsException excp) {
+                    return 0;
+                } catch (IOException | UnsupportedOperationException excp) {
+                    /* Not on the same file system, say: copy it instead. */
+                }
+            }
+            Path tmp = Files.createTempFile(to.toPath(), "object", ".tmp");
+            long length;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                if (loose.isFile()) {
+                    try (FileChannel in = FileChannel.open(loose.toPath(),
+                            StandardOpenOption.READ)) {
+                        length = in.size();
+                        for (long pos = 0; pos < length; ) {
+                            pos += in.transferTo(pos, length - pos, out);
+                        }
+                    }
+                } else {
+                    PackFile.Entry entry = null;
+                    for (PackFile pack : packs(from)) {
+                        entry = findIn(pack, type, hash);
+                        if (entry != null) {
+                            pack.transferTo(entry, out);
+                            break;
+                        }
+                    }
+                    if (entry == null) {
+                        throw new IllegalArgumentException("no such object " + hash);
+                    }
+                    length = entry.length;
+                }
+            } catch (RuntimeException | IOException excp) {
+                Files.deleteIfExists(tmp);
+                throw excp;
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as the object of type TYPE whose hash is HASH in
+     *  GITLETDIR, unless it is already present. */
+    static void write(File gitletDir, byte type, String hash, byte[] contents) {
+        if (!contains(gitletDir, type, hash)) {
+            File dir = looseDir(gitletDir, type);
+            dir.mkdir();
+            writeContents(join(dir, hash),
+                    isCompressed(gitletDir) ? compress(contents) : contents);
+        }
+    }
+
+    /** Records in the new repository GITLETDIR that it uses the current
+     *  object format. */
+    static void initFormat(File gitletDir) {
+        writeContents(join(gitletDir, FORMAT_FILE), Integer.toString(CURRENT_FORMAT));
+    }
+
+    /** Returns the object format version of GITLETDIR.  Repositories
+     *  created before the version marker existed are FORMAT_PLAIN. */
+    static int format(File gitletDir) {
+        synchronized (FORMATS) {
+            Integer result = FORMATS.get(gitletDir);
+            if (result == null) {
+                File marker = join(gitletDir, FORMAT_FILE);
+                result = marker.isFile()
+                        ? Integer.parseInt(readContentsAsString(marker).trim())
+                        : FORMAT_PLAIN;
+                if (result > CURRENT_FORMAT) {
+                    throw error("Unsupported repository format %d.", result);
+                }
+                FORMATS.put(gitletDir, result);
+            }
+            return result;
+        }
+    }
+
+    /** Returns true iff the objects of GITLETDIR are stored deflated. */
+    private static boolean isCompressed(File gitletDir) {
+        return format(gitletDir) >= FORMAT_DEFLATE;
+    }
+
+    /** Returns the hashes of all objects of type TYPE in GITLETDIR, loose
+     *  or packed, in lexicographic order. */
+    static List<String> list(File gitletDir, byte type) {
+        List<String> loose = plainFilenamesIn(looseDir(gitletDir, type));
+        TreeSet<String> result = new TreeSet<>(loose == null ? List.of() : loose);
+        for (PackFile pack : packs(gitletDir)) {
+            result.addAll(pack.hashes(type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the blob whose hash is HASH in GITLETDIR. */
+    static byte[] readBlob(File gitletDir, String hash) {
+        return read(gitletDir, BLOB, hash);
+    }
+
+    /** Writes the blob whose hash is HASH in GITLETDIR to FILE, inflating
+     *  it as it goes rather than holding it in memory, and creating the
+     *  directories above FILE as needed. */
+    static void checkoutBlob(File gitletDir, String hash, File file) {
+        file.getParentFile().mkdirs();
+        try (InputStream in = open(gitletDir, BLOB, hash)) {
+            writeContents(file, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as a blob in GITLETDIR and returns its hash. */
+    static String writeBlob(File gitletDir, byte[] contents) {
+        return writeBlob(gitletDir, contents, null);
+    }
+
+    /** Stores the contents of the file SOURCE as a blob in GITLETDIR and
+     *  returns its hash.  BASE is as for writeBlob(File, byte[], String).
+     *  Files small enough to be stored as deltas are read whole; larger
+     *  ones, or files with no BASE, are hashed and stored in one pass
+     *  through a fixed-size buffer, so that memory use does not grow with
+     *  the size of the file. */
+    static String writeBlob(File gitletDir, File source, String base) {
+        if (base != null && source.length() <= MAX_DELTA_SIZE) {
+            return writeBlob(gitletDir, readContents(source), base);
+        }
+        MessageDigest md = sha1Digest();
+        try (InputStream in = new FileInputStream(source)) {
+            Path tmp = Files.createTempFile(gitletDir.toPath(), "blob", ".tmp");
+            spool(gitletDir, in, md, tmp);
+            String hash = toHex(md.digest());
+            install(gitletDir, tmp, hash);
+            return hash;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the contents of SOURCE as the blob whose hash is HASH in
+     *  GITLETDIR, unless it is already present, passing them through a
+     *  fixed-size buffer as for writeBlob(File, File, String).  Reads
+     *  SOURCE to its end, but does not close it.  Returns the length of
+     *  the contents, or -1, storing nothing, if they do not hash to
+     *  HASH. */
+    static long writeBlob(File gitletDir, String hash, InputStream source)
+            throws IOException {
+        if (contains(gitletDir, BLOB, hash)) {
+            return source.transferTo(OutputStream.nullOutputStream());
+        }
+        MessageDigest md = sha1Digest();
+        Path tmp = Files.createTempFile(gitletDir.toPath(), "blob", ".tmp");
+        long length = spool(gitletDir, source, md, tmp);
+        if (!toHex(md.digest()).equals(hash)) {
+            Files.delete(tmp);
+            return -1;
+        }
+        install(gitletDir, tmp, hash);
+        return length;
+    }
+
+    /** Writes the contents of SOURCE to TMP as a blob of GITLETDIR is
+     *  stored, adding them to MD as they go, and returns their length.
+     *  Deletes TMP if that fails. */
+    private static long spool(File gitletDir, InputStream source, MessageDigest md, Path tmp)
+            throws IOException {
+        try (OutputStream out = storedStream(gitletDir, tmp.toFile())) {
+            return new DigestInputStream(source, md).transferTo(out);
+        } catch (IOException | RuntimeException excp) {
+            Files.deleteIfExists(tmp);
+            throw excp;
+        }
+    }
+
+    /** Moves TMP into GITLETDIR as the blob whose hash is HASH, or
+     *  deletes it if that blob is already there. */
+    private static void install(File gitletDir, Path tmp, String hash) throws IOException {
+        File dir = looseDir(gitletDir, BLOB);
+        dir.mkdir();
+        if (contains(gitletDir, BLOB, hash)) {
+            Files.delete(tmp);
+        } else {
+            Files.move(tmp, join(dir, hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /** Returns a stream that writes to FILE what it is given in the form
+     *  objects of GITLETDIR are stored in. */
+    private static OutputStream storedStream(File gitletDir, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        return isCompressed(gitletDir) ? new DeflaterOutputStream(out) : out;
+    }
+
+    /** Stores CONTENTS as a blob in GITLETDIR and returns its hash.  BASE,
+     *  if not null, is the hash of the previous version of the same file;
+     *  the blob is stored as a delta against it when that is much smaller
+     *  and BASE's own delta chain is shorter than MAX_DELTA_DEPTH.  Once a
+     *  chain reaches that depth the next version is stored whole and
+     *  starts a new chain, which bounds the cost of reading any blob. */
+    static String writeBlob(File gitletDir, byte[] contents, String base) {
+        String hash = sha1(contents);
+        if (contains(gitletDir, BLOB, hash)) {
+            return hash;
+        }
+        if (base != null && !base.equals(hash)
+                && contents.length >= MIN_DELTA_SIZE && contents.length <= MAX_DELTA_SIZE
+                && contains(gitletDir, BLOB, base)) {
+            int depth = deltaDepth(gitletDir, base);
+            if (depth < MAX_DELTA_DEPTH) {
+                byte[] baseContents;
+                try (InputStream in = open(gitletDir, BLOB, base)) {
+                    baseContents = in.readNBytes(MAX_DELTA_SIZE + 1);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                byte[] delta = baseContents.length <= MAX_DELTA_SIZE
+                        ? Delta.create(baseContents, contents, contents.length / 2)
+                        : null;
+                if (delta != null) {
+                    ByteArrayOutputStream payload =
+                            new ByteArrayOutputStream(delta.length + 21);
+                    payload.write(fromHex(base), 0, PackFile.HASH_SIZE);
+                    payload.write(depth + 1);
+                    payload.write(delta, 0, delta.length);
+                    write(gitletDir, DELTA, hash, payload.toByteArray());
+                    return hash;
+                }
+            }
+        }
+        write(gitletDir, BLOB, hash, contents);
+        return hash;
+    }
+
+    /** Space used by the blobs of a repository. */
+    static class BlobStats {
+        /** Number of blobs stored whole. */
+        int wholeBlobs;
+        /** Number of blobs stored as deltas. */
+        int deltaBlobs;
+        /** Total size of all blobs' contents. */
+        long logicalBytes;
+        /** Total size of all blobs as stored on disk. */
+        long storedBytes;
+        /** Total size of the contents of blobs stored as deltas. */
+        long deltaLogicalBytes;
+        /** Total size of the blobs stored as deltas, as stored on disk. */
+        long deltaStoredBytes;
+    }
+
+    /** Returns statistics on the blobs of GITLETDIR. */
+    static BlobStats blobStats(File gitletDir) {
+        BlobStats stats = new BlobStats();
+        for (String hash : list(gitletDir, BLOB)) {
+            stats.wholeBlobs += 1;
+            stats.storedBytes += storedSize(gitletDir, BLOB, hash);
+            try (InputStream in = open(gitletDir, BLOB, hash)) {
+                stats.logicalBytes += in.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (String hash : list(gitletDir, DELTA)) {
+            byte[] payload = read(gitletDir, DELTA, hash);
+            byte[] delta = Arrays.copyOfRange(payload, PackFile.HASH_SIZE + 1, payload.length);
+            long size = storedSize(gitletDir, DELTA, hash);
+            stats.deltaBlobs += 1;
+            stats.storedBytes += size;
+            stats.deltaStoredBytes += size;
+            stats.logicalBytes += Delta.targetLength(delta);
+            stats.deltaLogicalBytes += Delta.targetLength(delta);
+        }
+        return stats;
+    }
+
+    /** Returns the hash of the blob that the blob whose hash is HASH in
+     *  GITLETDIR is stored as a delta against, or null if it is stored
+     *  whole. */
+    static String deltaBase(File gitletDir, String hash) {
+        if (!isDelta(gitletDir, hash)) {
+            return null;
+        }
+        return toHex(Arrays.copyOf(read(gitletDir, DELTA, hash), PackFile.HASH_SIZE));
+    }
+
+    /** Returns true iff the blob whose hash is HASH is stored as a delta
+     *  in GITLETDIR. */
+    private static boolean isDelta(File gitletDir, String hash) {
+        return !has(gitletDir, BLOB, hash) && has(gitletDir, DELTA, hash);
+    }
+
+    /** Returns the length of the delta chain of the blob whose hash is
+     *  HASH in GITLETDIR: 0 if it is stored whole. */
+    static int deltaDepth(File gitletDir, String hash) {
+        if (!isDelta(gitletDir, hash)) {
+            return 0;
+        }
+        return read(gitletDir, DELTA, hash)[PackFile.HASH_SIZE] & 0xff;
+    }
+
+    /** Returns the contents of the blob whose hash is HASH in GITLETDIR,
+     *  which is stored as a delta, by applying its chain of deltas to the
+     *  whole blob at the bottom of the chain. */
+    private static byte[] readDeltified(File gitletDir, String hash) {
+        ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        String next = hash;
+        while (isDelta(gitletDir, next)) {
+            byte[] payload = read(gitletDir, DELTA, next);
+            next = toHex(Arrays.copyOf(payload, PackFile.HASH_SIZE));
+            deltas.push(Arrays.copyOfRange(payload, PackFile.HASH_SIZE + 1, payload.length));
+            if (deltas.size() > MAX_DELTA_DEPTH) {
+                throw new IllegalArgumentException("delta chain too long at " + hash);
+            }
+        }
+        byte[] contents = read(gitletDir, BLOB, next);
+        while (!deltas.isEmpty()) {
+            contents = Delta.apply(contents, deltas.pop());
+        }
+        return contents;
+    }
+
+    /** Returns the size on disk of the object of type TYPE whose hash is
+     *  HASH in GITLETDIR. */
+    private static long storedSize(File gitletDir, byte type, String hash) {
+        File loose = join(looseDir(gitletDir, type), hash);
+        if (loose.isFile()) {
+            return loose.length();
+        }
+        return findPacked(gitletDir, type, hash).length;
+    }
+
+    /** Returns the commit whose hash is HASH in GITLETDIR. */
+    static Commit readCommit(File gitletDir, String hash) {
+        return Commit.decode(gitletDir, read(gitletDir, COMMIT, hash));
+    }
+
+    /** Stores COMMIT in GITLETDIR and returns its hash. */
+    static String writeCommit(File gitletDir, Commit commit) {
+        byte[] contents = commit.encode();
+        String hash = sha1(contents);
+        write(gitletDir, COMMIT, hash, contents);
+        return hash;
+    }
+
+    /** Moves the loose objects of GITLETDIR into a new pack.  If ALL,
+     *  the existing packs are consolidated into it as well, leaving a
+     *  single pack.  Returns the number of objects in the new pack. */
+    static int pack(File gitletDir, boolean all) {
+        return pack(gitletDir, all, Set.of());
+    }
+
+    /** As pack(GITLETDIR, ALL), but leaves out the objects whose hashes
+     *  are in EXCLUDE: loose ones stay loose, and packed ones are dropped
+     *  if ALL (and are otherwise left in their packs). */
+    static int pack(File gitletDir, boolean all, Set<String> exclude) {
+        TreeMap<String, Byte> objects = new TreeMap<>();
+        HashMap<String, PackFile> packedIn = new HashMap<>();
+        for (byte type : new byte[] {BLOB, COMMIT, DELTA, TREE}) {
+            List<String> loose = plainFilenamesIn(looseDir(gitletDir, type));
+            for (String hash : loose == null ? List.<String>of() : loose) {
+                if (!exclude.contains(hash)) {
+                    objects.put(hash, type);
+                }
+            }
+        }
+        List<PackFile> oldPacks = packs(gitletDir);
+        boolean dropped = false;
+        if (all) {
+            for (PackFile pack : oldPacks) {
+                for (int k = 0; k < pack.size(); k += 1) {
+                    String hash = pack.hashAt(k);
+                    if (exclude.contains(hash)) {
+                        dropped = true;
+                    } else if (!objects.containsKey(hash)) {
+                        objects.put(hash, pack.entryAt(k).type);
+                        packedIn.put(hash, pack);
+                    }
+                }
+            }
+        }
+        if (all && objects.isEmpty() && dropped) {
+            deletePacks(gitletDir, oldPacks, null);
+            return 0;
+        }
+        if (objects.isEmpty() || (all && !dropped && packedIn.size() == objects.size()
+                && oldPacks.size() == 1)) {
+            return 0;
+        }
+
+        File dir = packDir(gitletDir);
+        dir.mkdir();
+        String name = "pack-" + sha1(String.join("", objects.keySet()));
+        File packFile = join(dir, name + ".pack");
+        File idxFile = join(dir, name + ".idx");
+        try {
+            File tmpPack = join(dir, name + ".pack.tmp");
+            long[] offsets = new long[objects.size()];
+            int[] lengths = new int[objects.size()];
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpPack.toPath())))) {
+                out.writeInt(PackFile.PACK_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(objects.size());
+                long offset = PackFile.HEADER_SIZE;
+                int k = 0;
+                for (Map.Entry<String, Byte> obj : objects.entrySet()) {
+                    PackFile from = packedIn.get(obj.getKey());
+                    PackFile.Entry entry = from == null ? null : from.find(fromHex(obj.getKey()));
+                    File loose = join(looseDir(gitletDir, obj.getValue()), obj.getKey());
+                    long length = entry != null ? entry.length : loose.length();
+                    if (length > Integer.MAX_VALUE) {
+                        throw error("Object %s is too large to pack.", obj.getKey());
+                    }
+                    out.writeByte(obj.getValue());
+                    out.writeInt((int) length);
+                    try (InputStream in = entry != null ? from.open(entry)
+                            : new FileInputStream(loose)) {
+                        in.transferTo(out);
+                    }
+                    offsets[k] = offset + 5;
+                    lengths[k] = (int) length;
+                    offset += 5 + length;
+                    k += 1;
+                }
+            }
+            File tmpIdx = join(dir, name + ".idx.tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpIdx.toPath())))) {
+                out.writeInt(PackFile.IDX_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(objects.size());
+                int k = 0;
+                for (Map.Entry<String, Byte> obj : objects.entrySet()) {
+                    out.write(fromHex(obj.getKey()));
+                    out.writeByte(obj.getValue());
+                    out.writeLong(offsets[k]);
+                    out.writeInt(lengths[k]);
+                    k += 1;
+                }
+            }
+            /* The index is renamed into place last: readers only look for
+             * packs through their indices, so a partial pack is invisible. */
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        for (Map.Entry<String, Byte> obj : objects.entrySet()) {
+            join(looseDir(gitletDir, obj.getValue()), obj.getKey()).delete();
+        }
+        if (all) {
+            deletePacks(gitletDir, oldPacks, packFile);
+        }
+        synchronized (PACKS) {
+            PACKS.remove(gitletDir);
+        }
+        return objects.size();
+    }
+
+    /** Closes PACKS, the packs of GITLETDIR, and deletes all of them
+     *  except the one whose data file is KEEP (which may be null). */
+    private static void deletePacks(File gitletDir, List<PackFile> packs, File keep) {
+        for (PackFile pack : packs) {
+            pack.close();
+            if (!pack.getPackFile().equals(keep)) {
+                String base = pack.getPackFile().getName().replace(".pack", "");
+                join(packDir(gitletDir), base + ".idx").delete();
+                join(packDir(gitletDir), base + ReachabilityBitmaps.EXTENSION).delete();
+                pack.getPackFile().delete();
+            }
+        }
+        synchronized (PACKS) {
+            PACKS.remove(gitletDir);
+        }
+    }
+
+    /** Forgets what this process has cached about every .gitlet
+     *  directory that another process may since have changed: object
+     *  formats, and the packs of any directory whose set of packs is no
+     *  longer the one that was opened.  Used by long-running processes
+     *  between commands. */
+    static void refresh() {
+        synchronized (FORMATS) {
+            FORMATS.clear();
+        }
+        synchronized (PACKS) {
+            Iterator<Map.Entry<File, List<PackFile>>> cached = PACKS.entrySet().iterator();
+            while (cached.hasNext()) {
+                Map.Entry<File, List<PackFile>> e = cached.next();
+                TreeSet<String> opened = new TreeSet<>();
+                for (PackFile pack : e.getValue()) {
+                    opened.add(pack.getPackFile().getName().replace(".pack", ".idx"));
+                }
+                TreeSet<String> current = new TreeSet<>();
+                File dir = packDir(e.getKey());
+                if (dir.isDirectory()) {
+                    for (String name : plainFilenamesIn(dir)) {
+                        if (name.endsWith(".idx")) {
+                            current.add(name);
+                        }
+                    }
+                }
+                if (!opened.equals(current)) {
+                    for (PackFile pack : e.getValue()) {
+                        pack.close();
+                    }
+                    cached.remove();
+                }
+            }
+        }
+    }
+
+    /** Returns the packs of GITLETDIR, opening them on first use. */
+    static List<PackFile> packs(File gitletDir) {
+        synchronized (PACKS) {
+            List<PackFile> result = PACKS.get(gitletDir);
+            if (result == null) {
+                result = new ArrayList<>();
+                File dir = packDir(gitletDir);
+                if (dir.isDirectory()) {
+                    for (String name : plainFilenamesIn(dir)) {
+                        if (name.endsWith(".idx")) {
+                            result.add(new PackFile(join(dir, name)));
+                        }
+                    }
+                }
+                PACKS.put(gitletDir, result);
+            }
+            return result;
+        }
+    }
+
+    /** Returns true iff GITLETDIR holds an object stored with type TYPE
+     *  whose hash is HASH. */
+    private static boolean has(File gitletDir, byte type, String hash) {
+        if (join(looseDir(gitletDir, type), hash).isFile()) {
+            return true;
+        }
+        return findPacked(gitletDir, type, hash) != null;
+    }
+
+    /** Returns the pack entry of the object of type TYPE whose hash is
+     *  HASH in GITLETDIR, or null if it is not packed. */
+    private static PackFile.Entry findPacked(File gitletDir, byte type, String hash) {
+        for (PackFile pack : packs(gitletDir)) {
+            PackFile.Entry entry = findIn(pack, type, hash);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the entry of the object of type TYPE whose hash is HASH in
+     *  PACK, or null if it is not there. */
+    private static PackFile.Entry findIn(PackFile pack, byte type, String hash) {
+        if (!isUid(hash)) {
+            return null;
+        }
+        PackFile.Entry entry = pack.find(fromHex(hash));
+        return entry != null && entry.type == type ? entry : null;
+    }
+}
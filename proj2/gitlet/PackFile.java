@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A read-only view of one pack file and its index.
+ *
+ *  A pack (pack-UID.pack) is the magic number PACK_MAGIC, a format version
+ *  and an object count, followed by one record per object: a type byte,
+ *  a 4-byte length and the object as stored (deflated in compressed
+ *  repositories, see ObjectStore).  Its index (pack-UID.idx) is
+ *  IDX_MAGIC, the version and the count, followed by fixed-width records
+ *  sorted by raw SHA-1 hash: the 20-byte hash, the type byte, the 8-byte
+ *  offset of the object contents within the pack and the 4-byte length.
+ *  Lookups are a binary search over the memory-mapped index.
+ *
+ *  @author onemeter
+ */
+class PackFile {
+
+    /** Magic number at the start of every pack. */
+    static final int PACK_MAGIC = 0x47504b31;
+
+    /** Magic number at the start of every pack index. */
+    static final int IDX_MAGIC = 0x47494431;
+
+    /** Current pack and index format version. */
+    static final int VERSION = 1;
+
+    /** Size of the pack and index headers in bytes. */
+    static final int HEADER_SIZE = 12;
+
+    /** Size of a raw SHA-1 hash in bytes. */
+    static final int HASH_SIZE = 20;
+
+    /** Size of one index record in bytes. */
+    static final int RECORD_SIZE = HASH_SIZE + 1 + 8 + 4;
+
+    /** Location of one object within a pack. */
+    static class Entry {
+        /** The object's type, one of the ObjectStore type codes. */
+        final byte type;
+        /** Offset of the object contents within the pack. */
+        final long offset;
+        /** Length of the object contents. */
+        final int length;
+
+        Entry(byte type, long offset, int length) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** The pack data file. */
+    private final File packFile;
+
+    /** The mapped index, positioned past its header. */
+    private final ByteBuffer index;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Channel on the pack data file, opened on first read. */
+    private FileChannel channel;
+
+    /** A pack whose index is IDXFILE.  Throws IllegalArgumentException
+     *  if the index is malformed. */
+    PackFile(File idxFile) {
+        String name = idxFile.getName();
+        packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel idx = FileChannel.open(idxFile.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+            if (buf.getInt() != IDX_MAGIC || buf.getInt() != VERSION) {
+                throw new IllegalArgumentException("bad pack index " + name);
+            }
+            count = buf.getInt();
+            index = buf.slice();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the data file of this pack. */
+    File getPackFile() {
+        return packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the entry for the object whose raw hash is HASH, or null
+     *  if this pack does not contain it. */
+    Entry find(byte[] hash) {
+        int k = position(hash);
+        return k < 0 ? null : entryAt(k);
+    }
+
+    /** Returns the position in index order of the object whose raw hash
+     *  is HASH, or -1 if it is not in this pack. */
+    int position(byte[] hash) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareHash(mid * RECORD_SIZE, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the hex hash of the Kth object of this pack in index order. */
+    String hashAt(int k) {
+        byte[] hash = new byte[HASH_SIZE];
+        index.get(k * RECORD_SIZE, hash);
+        return Utils.toHex(hash);
+    }
+
+    /** Returns the entry of the Kth object of this pack in index order. */
+    Entry entryAt(int k) {
+        int pos = k * RECORD_SIZE + HASH_SIZE;
+        return new Entry(index.get(pos), index.getLong(pos + 1), index.getInt(pos + 9));
+    }
+
+    /** Returns the hex hashes of all objects of type TYPE in this pack, in
+     *  sorted order. */
+    List<String> hashes(byte type) {
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            if (index.get(k * RECORD_SIZE + HASH_SIZE) == type) {
+                result.add(hashAt(k));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the object at ENTRY. */
+    byte[] read(Entry entry) {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(entry.length);
+            long pos = entry.offset;
+            while (buf.hasRemaining()) {
+                pos += readAt(buf, pos);
+            }
+            return buf.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of the object at ENTRY to OUT, channel to
+     *  channel, so that they need not pass through the Java heap. */
+    synchronized void transferTo(Entry entry, WritableByteChannel out) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        long pos = entry.offset;
+        long end = entry.offset + entry.length;
+        while (pos < end) {
+            long n = channel.transferTo(pos, end - pos, out);
+            if (n <= 0 && pos >= channel.size()) {
+                throw new IOException("truncated pack " + packFile.getName());
+            }
+            pos += n;
+        }
+    }
+
+    /** Reads bytes of the pack starting at POS into BUF, returning the
+     *  number read. */
+    private synchronized int readAt(ByteBuffer buf, long pos) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        int n = channel.read(buf, pos);
+        if (n < 0) {
+            throw new IOException("truncated pack " + packFile.getName());
+        }
+        return n;
+    }
+
+    /** Returns a stream over the contents of the object at ENTRY, read
+     *  from the pack as it is consumed. */
+    InputStream open(Entry entry) {
+        return new InputStream() {
+            private long pos = entry.offset;
+            private final long end = entry.offset + entry.length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (pos >= end) {
+                    return -1;
+                }
+                int n = readAt(ByteBuffer.wrap(buf, off, (int) Math.min(len, end - pos)), pos);
+                pos += n;
+                return n;
+            }
+        };
+    }
+
+    /** Releases the channel on the pack data file, if open. */
+    synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                /* Ignore: the pack is only being read. */
+            }
+            channel = null;
+        }
+    }
+
+    /** Compares the raw hash at byte position POS of the index with HASH. */
+    private int compareHash(int pos, byte[] hash) {
+        for (int i = 0; i < HASH_SIZE; i += 1) {
+            int cmp = Integer.compare(index.get(pos + i) & 0xff, hash[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Bloom filters of the paths each commit changed, persisted in the
+ *  commit-bloom file so that a path-limited log can pass over most
+ *  commits without reading them.
+ *
+ *  A commit's changed paths are the files whose blobs differ from its
+ *  first parent's (all its files for a root commit).  Its filter has
+ *  BITS_PER_PATH bits per path, and each path sets HASHES of them, chosen
+ *  by double hashing of the 64-bit FNV-1a hash of its UTF-8 bytes.  A
+ *  path whose bits are not all set was certainly not changed; one whose
+ *  bits are was changed, or is a false positive, roughly 1% of the time
+ *  with these settings.  A commit that changed more than MAX_PATHS paths
+ *  gets no filter and is always checked.
+ *
+ *  Filters are numbered like the commits of the CommitGraph.  The file is
+ *  the magic number MAGIC and a format version, followed by one record
+ *  per commit in graph order: the length of its filter in bytes (TOO_MANY
+ *  for a commit without one) and the filter.  Like the commit graph it is
+ *  only appended to, and only by commit: ensure first fills in the
+ *  filters of commits the graph gained by other means, then the filter of
+ *  the commit it makes is added.  log -- <file> ensures the filters it
+ *  needs in memory but, holding the repository lock shared, does not
+ *  save them.
+ *
+ *  @author onemeter
+ */
+class PathFilters {
+
+    /** Magic number at the start of the commit-bloom file. */
+    private static final int MAGIC = 0x47424631;
+
+    /** Current commit-bloom format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Number of bits set by each path. */
+    private static final int HASHES = 7;
+
+    /** Number of filter bits per changed path. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** Most changed paths a commit may have and still get a filter. */
+    static final int MAX_PATHS = 512;
+
+    /** Filter length recorded for a commit with more than MAX_PATHS
+     *  changed paths. */
+    private static final int TOO_MANY = -1;
+
+    /** The .gitlet directory whose commits are filtered. */
+    private final File gitletDir;
+
+    /** The commit-bloom file. */
+    private final File file;
+
+    /** Filter of each commit, by graph index; null for commits with too
+     *  many changed paths. */
+    private final ArrayList<byte[]> filters = new ArrayList<>();
+
+    /** Number of filters already recorded in the file. */
+    private int saved;
+
+    /** Length of the file that the saved filters occupy. */
+    private long savedLength = HEADER_SIZE;
+
+    /** The path filters of GITLETDIR, read from its commit-bloom file. */
+    private PathFilters(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = join(gitletDir, "commit-bloom");
+    }
+
+    /** Returns the path filters of GITLETDIR as recorded on disk.  A
+     *  record left incomplete by an interrupted append is ignored. */
+    static PathFilters load(File gitletDir) {
+        PathFilters result = new PathFilters(gitletDir);
+        if (result.file.isFile()) {
+            ByteBuffer in = ByteBuffer.wrap(readContents(result.file));
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC
+                || in.getInt() != VERSION) {
+                throw error("Corrupt commit-bloom file.");
+            }
+            while (in.remaining() >= 4) {
+                int length = in.getInt();
+                if (length == TOO_MANY) {
+                    result.filters.add(null);
+                } else if (length >= 0 && in.remaining() >= length) {
+                    byte[] filter = new byte[length];
+                    in.get(filter);
+                    result.filters.add(filter);
+                } else {
+                    break;
+                }
+                result.savedLength = in.position();
+            }
+            result.saved = result.filters.size();
+        }
+        return result;
+    }
+
+    /** Returns the number of commits that have filters. */
+    int size() {
+        return filters.size();
+    }
+
+    /** Adds the filter of the commit with the next graph index, which
+     *  changed PATHS. */
+    void add(Set<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            filters.add(null);
+            return;
+        }
+        byte[] filter = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        for (String path : paths) {
+            int bits = 8 * filter.length;
+            long hash = hash(path);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        filters.add(filter);
+    }
+
+    /** Returns false if commit K certainly did not change PATH, and true
+     *  if it may have.  K must be less than size(). */
+    boolean mayHaveChanged(int k, String path) {
+        byte[] filter = filters.get(k);
+        if (filter == null) {
+            return true;
+        }
+        if (filter.length == 0) {
+            return false;
+        }
+        int bits = 8 * filter.length;
+        long hash = hash(path);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns true iff commit K has a filter, that is, did not change
+     *  too many paths to have one. */
+    boolean isFiltered(int k) {
+        return filters.get(k) != null;
+    }
+
+    /** Adds the filters of the commits of GRAPH up to index K that do
+     *  not have one yet, reading them from the object store. */
+    void ensure(CommitGraph graph, int k) {
+        // a commit is most often followed by its child, so keep the last one read
+        int last = CommitGraph.NONE;
+        Commit lastCommit = null;
+        while (size() <= k) {
+            int next = size();
+            int parent = graph.parent(next);
+            Commit parentCommit = null;
+            if (parent != CommitGraph.NONE) {
+                parentCommit = parent == last
+                    ? lastCommit : ObjectStore.readCommit(gitletDir, graph.hashAt(parent));
+            }
+            Commit commit = ObjectStore.readCommit(gitletDir, graph.hashAt(next));
+            add(changedPaths(gitletDir, parentCommit, commit));
+            last = next;
+            lastCommit = commit;
+        }
+    }
+
+    /** Returns the paths of the files whose blobs differ between the
+     *  commits PARENT (null for none) and COMMIT of GITLETDIR. */
+    static Set<String> changedPaths(File gitletDir, Commit parent, Commit commit) {
+        TreeSet<String> paths = new TreeSet<>();
+        if (commit.getTree() != null && (parent == null || parent.getTree() != null)) {
+            Tree.changedPaths(gitletDir, parent == null ? null : parent.getTree(),
+                              commit.getTree(), paths);
+            return paths;
+        }
+        // commits that predate trees are compared file by file
+        Map<String, String> before = parent == null ? Map.of() : parent.getFileSnapshots();
+        Map<String, String> after = commit.getFileSnapshots();
+        for (Map.Entry<String, String> file : after.entrySet()) {
+            if (!file.getValue().equals(before.get(file.getKey()))) {
+                paths.add(file.getKey());
+            }
+        }
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /** Appends the filters added since these filters were loaded or last
+     *  saved to the commit-bloom file. */
+    void save() {
+        if (saved == size()) {
+            return;
+        }
+        boolean fresh = !file.isFile();
+        if (!fresh && file.length() != savedLength) {
+            /* Drop a record left incomplete by an interrupted append. */
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(savedLength);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (int k = saved; k < size(); k += 1) {
+                byte[] filter = filters.get(k);
+                if (filter == null) {
+                    out.writeInt(TOO_MANY);
+                } else {
+                    out.writeInt(filter.length);
+                    out.write(filter);
+                }
+            }
+            savedLength = (fresh ? 0 : savedLength) + out.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        saved = size();
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the UTF-8 bytes of PATH. */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
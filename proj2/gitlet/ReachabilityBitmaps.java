@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+import static gitlet.Utils.*;
+
+/** Reachability bitmaps: for selected commits, the set of every object
+ *  reachable from the commit, as a RoaringBitmap over the positions of
+ *  the objects in one pack.
+ *
+ *  Finding what is reachable from some commits (by gc), or from one
+ *  commit but not from others (by push and fetch), otherwise means
+ *  reading every commit and tree on the way.  With bitmaps, a walk that
+ *  reaches a commit that has one takes the union with its bitmap and
+ *  goes no further, so only the commits and trees written since the
+ *  last repack are read, and differences of whole histories are a
+ *  bitmap difference.
+ *
+ *  Bitmaps are written by repack and gc, right after they leave a
+ *  single pack holding every object then reachable.  They are kept for
+ *  the commits at the tips of the branches and for one commit in every
+ *  SPACING generations of their history, and are stored next to their
+ *  pack in pack-UID.bitmap: the magic number MAGIC, a format version and
+ *  a count, then for each commit its raw hash and its bitmap.  Since the
+ *  objects reachable from a commit never change, the bitmaps of a pack
+ *  stay valid for as long as the pack exists; they are deleted with it.
+ *
+ *  @author onemeter
+ */
+class ReachabilityBitmaps {
+
+    /** Magic number at the start of a bitmap file. */
+    private static final int MAGIC = 0x47424d31;
+
+    /** Current bitmap file format version. */
+    private static final int VERSION = 1;
+
+    /** Generations between commits with bitmaps. */
+    static final int SPACING = 64;
+
+    /** Extension of bitmap files in the pack directory. */
+    static final String EXTENSION = ".bitmap";
+
+    /** A set of objects of one repository: those in the bitmap pack as
+     *  a bitmap of their positions, and the others by hash, with their
+     *  types. */
+    static final class ObjectSet {
+        /** The pack the bitmap is over, or null. */
+        private final PackFile pack;
+        /** Positions in pack of the objects it holds. */
+        private final RoaringBitmap bits = new RoaringBitmap();
+        /** The objects outside pack, with their types. */
+        private final HashMap<String, Byte> others = new HashMap<>();
+
+        /** An empty set of objects, over the positions of PACK. */
+        private ObjectSet(PackFile pack) {
+            this.pack = pack;
+        }
+
+        /** Returns the position of HASH in the pack, or -1. */
+        private int position(String hash) {
+            return pack == null || !isUid(hash) ? -1 : pack.position(fromHex(hash));
+        }
+
+        /** Returns true iff this set holds the object whose hash is
+         *  HASH. */
+        boolean contains(String hash) {
+            int k = position(hash);
+            return k >= 0 ? bits.contains(k) : others.containsKey(hash);
+        }
+
+        /** Adds the object of type TYPE whose hash is HASH.  Returns false
+         *  if it was already there. */
+        boolean add(String hash, byte type) {
+            int k = position(hash);
+            if (k >= 0) {
+                if (bits.contains(k)) {
+                    return false;
+                }
+                bits.add(k);
+                return true;
+            }
+            return others.putIfAbsent(hash, type) == null;
+        }
+
+        /** Removes every object of OTHER, a set of the same repository. */
+        void removeAll(ObjectSet other) {
+            bits.andNot(other.bits);
+            others.keySet().removeAll(other.others.keySet());
+        }
+
+        /** Returns the number of objects in this set. */
+        int size() {
+            return bits.cardinality() + others.size();
+        }
+
+        /** Passes the hash and type of each object to ACTION. */
+        void forEach(BiConsumer<String, Byte> action) {
+            bits.forEach(k -> action.accept(pack.hashAt(k), pack.entryAt(k).type));
+            others.forEach(action);
+        }
+    }
+
+    /** The repository. */
+    private final File gitletDir;
+
+    /** The pack the bitmaps are over, or null if there are none. */
+    private final PackFile pack;
+
+    /** The bitmaps, by commit. */
+    private final HashMap<String, RoaringBitmap> bitmaps = new HashMap<>();
+
+    /** The shallow boundary of the repository, whose commits' parents
+     *  are not reached. */
+    private final Set<String> shallow;
+
+    /** The bitmaps of GITLETDIR over PACK (null for none). */
+    private ReachabilityBitmaps(File gitletDir, PackFile pack) {
+        this.gitletDir = gitletDir;
+        this.pack = pack;
+        this.shallow = ShallowBoundary.load(gitletDir);
+    }
+
+    /** Returns the bitmaps of GITLETDIR, of which there may be none. */
+    static ReachabilityBitmaps load(File gitletDir) {
+        for (PackFile pack : ObjectStore.packs(gitletDir)) {
+            File file = bitmapFile(pack);
+            if (!file.isFile()) {
+                continue;
+            }
+            ReachabilityBitmaps result = new ReachabilityBitmaps(gitletDir, pack);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file.toPath())))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw error("Corrupt bitmap file %s.", file.getName());
+                }
+                int count = in.readInt();
+                byte[] hash = new byte[PackFile.HASH_SIZE];
+                for (int k = 0; k < count; k += 1) {
+                    in.readFully(hash);
+                    result.bitmaps.put(toHex(hash), RoaringBitmap.read(in));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return result;
+        }
+        return new ReachabilityBitmaps(gitletDir, null);
+    }
+
+    /** Returns true iff there are no bitmaps. */
+    boolean isEmpty() {
+        return bitmaps.isEmpty();
+    }
+
+    /** Returns the number of commits with bitmaps. */
+    int size() {
+        return bitmaps.size();
+    }
+
+    /** Returns the set of objects reachable from the commits COMMITS and
+     *  the blobs BLOBS, counting the bases of blobs stored as deltas.
+     *  Objects for which KNOWN, given their type and hash, returns true
+     *  are left out with everything under them; commits reached through
+     *  a bitmap are not tested. */
+    ObjectSet reachable(Collection<String> commits, Collection<String> blobs,
+                        BiPredicate<Byte, String> known) {
+        ObjectSet result = new ObjectSet(pack);
+        ArrayDeque<String> pending = new ArrayDeque<>(commits);
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (known.test(ObjectStore.COMMIT, hash)) {
+                continue;
+            }
+            RoaringBitmap bitmap = bitmaps.get(hash);
+            if (bitmap != null) {
+                result.bits.or(bitmap);
+                continue;
+            }
+            if (!result.add(hash, ObjectStore.COMMIT)) {
+                continue;
+            }
+            Commit commit = ObjectStore.readCommit(gitletDir, hash);
+            String[] parents = shallow.contains(hash) ? new String[0]
+                : new String[] {commit.getParent(), commit.getSecondParent()};
+            for (String parent : parents) {
+                if (parent != null && !result.contains(parent)) {
+                    pending.push(parent);
+                }
+            }
+            if (commit.getTree() != null) {
+                Tree.walk(gitletDir, commit.getTree(),
+                          tree -> !known.test(ObjectStore.TREE, tree)
+                                  && result.add(tree, ObjectStore.TREE),
+                          blob -> addBlob(result, blob, known));
+            } else {
+                for (String blob : commit.getFileSnapshots().values()) {
+                    addBlob(result, blob, known);
+                }
+            }
+        }
+        for (String blob : blobs) {
+            addBlob(result, blob, known);
+        }
+        return result;
+    }
+
+    /** Adds the blob HASH to OBJECTS unless KNOWN, and the chain of
+     *  blobs it is stored as a delta against. */
+    private void addBlob(ObjectSet objects, String hash, BiPredicate<Byte, String> known) {
+        while (hash != null && !known.test(ObjectStore.BLOB, hash)
+               && objects.add(hash, ObjectStore.BLOB)) {
+            hash = ObjectStore.deltaBase(gitletDir, hash);
+        }
+    }
+
+    /** Writes the bitmaps of the commits of GITLETDIR reachable from TIPS
+     *  over its only pack, replacing any it had.  Does nothing unless
+     *  GITLETDIR has exactly one pack. */
+    static void write(File gitletDir, Collection<String> tips) {
+        List<PackFile> packs = ObjectStore.packs(gitletDir);
+        if (packs.size() != 1) {
+            return;
+        }
+        PackFile pack = packs.get(0);
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        BitSet selected = new BitSet();
+        BitSet reachable = new BitSet();
+        for (String tip : tips) {
+            int k = graph.ensure(tip);
+            selected.set(k);
+            reachable.or(graph.ancestors(k));
+        }
+        graph.save();
+        for (int k = reachable.nextSetBit(0); k >= 0; k = reachable.nextSetBit(k + 1)) {
+            if (graph.generation(k) % SPACING == 0) {
+                selected.set(k);
+            }
+        }
+
+        // graph order puts parents first, so each bitmap can start from
+        // those of the selected commits below it
+        ReachabilityBitmaps result = new ReachabilityBitmaps(gitletDir, pack);
+        for (int k = selected.nextSetBit(0); k >= 0; k = selected.nextSetBit(k + 1)) {
+            String hash = graph.hashAt(k);
+            ObjectSet objects = result.reachable(List.of(hash), List.of(), (type, h) -> false);
+            if (objects.others.isEmpty()) {
+                result.bitmaps.put(hash, objects.bits);
+            }
+        }
+
+        File file = bitmapFile(pack);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(result.bitmaps.size());
+            for (Map.Entry<String, RoaringBitmap> e : result.bitmaps.entrySet()) {
+                out.write(fromHex(e.getKey()));
+                e.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the commits the refs under the refs/heads directory of
+     *  GITLETDIR point to, including those of remotes. */
+    static List<String> refTips(File gitletDir) {
+        List<String> result = new ArrayList<>();
+        addRefs(join(gitletDir, "refs", "heads"), result);
+        return result;
+    }
+
+    /** Adds to TIPS the commit every ref under DIR points to. */
+    private static void addRefs(File dir, List<String> tips) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                addRefs(entry, tips);
+            } else {
+                tips.add(readContentsAsString(entry).trim());
+            }
+        }
+    }
+
+    /** Returns the bitmap file of PACK. */
+    static File bitmapFile(PackFile pack) {
+        String name = pack.getPackFile().getName();
+        return new File(pack.getPackFile().getParentFile(),
+                        name.substring(0, name.length() - ".pack".length()) + EXTENSION);
+    }
+}
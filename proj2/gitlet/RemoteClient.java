@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A connection to a gitlet server, for push and fetch to remotes whose
+ *  address is a gitlet://HOST:PORT/ URL (see RemoteProtocol).
+ *
+ *  The client sends its HELLO as soon as it connects and its first
+ *  request right behind it, and only reads the server's HELLO with the
+ *  answer to that request.  Every failure of the
+ *  connection is reported to the user as a lost connection; failed
+ *  requests, with the server's message.
+ *
+ *  @author onemeter
+ */
+class RemoteClient implements AutoCloseable {
+
+    /** The connection. */
+    private final RemoteProtocol.Connection connection;
+
+    /** True once the server's HELLO has been read. */
+    private boolean greeted;
+
+    /** The shallow boundary of the server. */
+    private List<String> boundary = List.of();
+
+    /** A client over CONNECTION. */
+    private RemoteClient(RemoteProtocol.Connection connection) {
+        this.connection = connection;
+    }
+
+    /** Returns true iff ADDRESS, the address of a remote, is that of a
+     *  gitlet server rather than a directory. */
+    static boolean isUrl(String address) {
+        return address.startsWith(RemoteProtocol.SCHEME);
+    }
+
+    /** Returns a client connected to the server at URL, a gitlet://
+     *  URL. */
+    static RemoteClient connect(String url) {
+        InetSocketAddress address = parse(url);
+        if (address.isUnresolved()) {
+            throw error("Could not connect to remote server.");
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(address,
+                    (int) TimeUnit.SECONDS.toMillis(RemoteProtocol.TIMEOUT_SECONDS));
+            RemoteClient client = new RemoteClient(new RemoteProtocol.Connection(channel));
+            client.connection.send(RemoteProtocol.HELLO, ByteBuffer.allocate(8)
+                    .putInt(RemoteProtocol.MAGIC).putInt(RemoteProtocol.VERSION).array());
+            return client;
+        } catch (IOException excp) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    /* Nothing more to do. */
+                }
+            }
+            throw error("Could not connect to remote server.");
+        }
+    }
+
+    /** Returns the address of the server of URL. */
+    private static InetSocketAddress parse(String url) {
+        try {
+            URI uri = new URI(url);
+            String path = uri.getRawPath();
+            if (uri.getHost() == null || uri.getRawQuery() != null
+                || uri.getRawFragment() != null || uri.getRawUserInfo() != null
+                || !(path == null || path.isEmpty() || path.equals("/"))) {
+                throw error("Invalid remote URL.");
+            }
+            return new InetSocketAddress(uri.getHost(),
+                    uri.getPort() < 0 ? RemoteProtocol.DEFAULT_PORT : uri.getPort());
+        } catch (URISyntaxException | IllegalArgumentException excp) {
+            throw error("Invalid remote URL.");
+        }
+    }
+
+    /** Returns the branches of the server and the commits they point
+     *  to, and sets the server's shallow boundary to be returned by
+     *  getBoundary. */
+    Map<String, String> refs() {
+        try {
+            connection.send(RemoteProtocol.LIST, new byte[0]);
+            DataInputStream in = expect(RemoteProtocol.REFS);
+            Map<String, String> result = new LinkedHashMap<>();
+            for (int k = in.readInt(); k > 0; k -= 1) {
+                String branch = in.readUTF();
+                result.put(branch, RemoteProtocol.readHash(in));
+            }
+            boundary = RemoteProtocol.readHashes(in);
+            return result;
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /** Returns the shallow boundary of the server, as last listed by
+     *  refs. */
+    List<String> getBoundary() {
+        return boundary;
+    }
+
+    /** Fetches the server's branch BRANCH, with at most DEPTH
+     *  generations of its history (all if 0) that a repository that has
+     *  the commits HAVES above the shallow boundary BOUNDARY is missing,
+     *  into that repository through READER.  Returns the commit BRANCH
+     *  points to. */
+    String fetch(String branch, int depth, Collection<String> haves,
+                 Collection<String> boundary, RemoteProtocol.ObjectReader reader) {
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeUTF(branch);
+            out.writeInt(depth);
+            RemoteProtocol.writeHashes(out, haves);
+            RemoteProtocol.writeHashes(out, boundary);
+            connection.send(RemoteProtocol.FETCH, request.toByteArray());
+            String tip = RemoteProtocol.readHash(expect(RemoteProtocol.OK));
+            reader.receive(connection);
+            return tip;
+        } catch (IOException | UncheckedIOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /** Moves the server's branch BRANCH from EXPECTED (null if it does
+     *  not exist) to TIP, a commit of the repository GITLETDIR, sending
+     *  the part of its history a repository with the commits HAVES, above
+     *  the shallow boundary BOUNDARY, is missing.  Returns the transfer,
+     *  to be asked what it sent. */
+    Transfer push(File gitletDir, String branch, String expected, String tip,
+                  Collection<String> haves, Collection<String> boundary) {
+        try {
+            connection.send(RemoteProtocol.PUSH, RemoteProtocol.strings(
+                    branch, expected == null ? "" : expected, tip));
+            RemoteProtocol.ObjectWriter out = new RemoteProtocol.ObjectWriter(connection);
+            Transfer transfer = Transfer.push(gitletDir, out, tip, haves, boundary);
+            out.finish();
+            expect(RemoteProtocol.OK);
+            return transfer;
+        } catch (IOException | UncheckedIOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /** Returns the payload of the next frame from the server, which must
+     *  be of kind KIND, first reading its HELLO if it has not been. */
+    private DataInputStream expect(byte kind) throws IOException {
+        if (!greeted) {
+            DataInputStream hello = connection.expect(RemoteProtocol.HELLO);
+            if (hello.readInt() != RemoteProtocol.MAGIC
+                || hello.readInt() != RemoteProtocol.VERSION) {
+                throw new IOException("not a gitlet server");
+            }
+            greeted = true;
+        }
+        return connection.expect(kind);
+    }
+
+    /** Returns the error reporting that the connection failed. */
+    private static GitletException lostConnection() {
+        return error("Lost connection to remote server.");
+    }
+
+    /** Returns the number of bytes sent and received so far. */
+    long getWireBytes() {
+        return connection.getWireBytes();
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** The protocol spoken between gitlet and a gitlet server (see
+ *  RemoteServer and RemoteClient) over TCP, for remotes whose address is
+ *  a gitlet://HOST:PORT/ URL.
+ *
+ *  Both sides send frames, each a kind byte, a 4-byte length and that
+ *  many bytes of payload, whose strings are written as by
+ *  DataOutputStream.writeUTF.  The client opens with HELLO, carrying
+ *  MAGIC and VERSION, and may send its requests right behind it without
+ *  waiting for the server's HELLO; the server answers the requests of a
+ *  connection in order, so a client sends whatever it already knows it
+ *  will ask in one go and pays one round trip for all of it.  The
+ *  requests are:
+ *
+ *  LIST: the server answers REFS, the number of its branches, then the
+ *  name and commit of each, then its shallow boundary (see
+ *  ShallowBoundary) as a count and the commits.
+ *
+ *  FETCH, a branch, the most generations of its history to send (0 for
+ *  all), and the commits the client has and its shallow boundary, each
+ *  as a count and the commits: the server answers OK with the commit
+ *  the branch points to, then sends what the client is missing of its
+ *  history as an object stream.
+ *
+ *  PUSH, a branch, the commit the client believes it points to (empty
+ *  if none) and the commit to point it to, followed by an object stream
+ *  of what the server is missing: the server answers OK once it has
+ *  moved the branch.
+ *
+ *  An object stream is a run of OBJECTS and OBJECT frames ended by DONE,
+ *  whose payload is the number of objects sent.  An OBJECTS frame holds a
+ *  batch of whole objects of at most about BATCH_SIZE bytes, each a type
+ *  byte, a raw hash, a 4-byte length and the contents, compressed
+ *  together in zlib format behind their uncompressed length.  An object
+ *  larger than BATCH_SIZE is sent on its own instead, as an OBJECT frame
+ *  carrying its type byte and raw hash followed by its contents in CHUNK
+ *  frames, each compressed like a batch, so that neither side holds more
+ *  than a chunk of a large blob in memory.  Objects are sent in the
+ *  order Transfer copies them, so the receiver stores each as it arrives
+ *  and never holds a commit without everything it refers to.  It checks
+ *  each object against its hash, and accepts commits only in their
+ *  binary encoding, never as serialized Java objects.
+ *
+ *  A request that fails is answered with ERROR, carrying the message to
+ *  show the user.  Either side drops a connection on which nothing has
+ *  moved for TIMEOUT_SECONDS, and refuses frames larger than MAX_FRAME,
+ *  or than MAX_LIST_FRAME for those listing commits.
+ *
+ *  @author onemeter
+ */
+class RemoteProtocol {
+
+    /** Prefix of the addresses of remotes reached through a server. */
+    static final String SCHEME = "gitlet://";
+
+    /** Port servers listen on when not told otherwise. */
+    static final int DEFAULT_PORT = 9418;
+
+    /** Magic number of the HELLO frame. */
+    static final int MAGIC = 0x47544c50;
+
+    /** Current protocol version. */
+    static final int VERSION = 3;
+
+    /** Opening frame of either side. */
+    static final byte HELLO = 0;
+
+    /** Request for the server's branches. */
+    static final byte LIST = 1;
+
+    /** Answer to LIST. */
+    static final byte REFS = 2;
+
+    /** Request for the history of a branch. */
+    static final byte FETCH = 3;
+
+    /** Request to move a branch, followed by the objects it needs. */
+    static final byte PUSH = 4;
+
+    /** A batch of objects. */
+    static final byte OBJECTS = 5;
+
+    /** End of an object stream. */
+    static final byte DONE = 6;
+
+    /** Success. */
+    static final byte OK = 7;
+
+    /** Failure, with the message to show. */
+    static final byte ERROR = 8;
+
+    /** Start of an object too large for a batch. */
+    static final byte OBJECT = 9;
+
+    /** Part of the contents of the object of the last OBJECT frame. */
+    static final byte CHUNK = 10;
+
+    /** Uncompressed bytes of objects gathered into one OBJECTS frame
+     *  before it is sent. */
+    static final int BATCH_SIZE = 1 << 20;
+
+    /** Bytes of an object's type, hash and length in a batch. */
+    private static final int OBJECT_HEADER = 1 + PackFile.HASH_SIZE + 4;
+
+    /** Largest uncompressed batch or chunk accepted: a batch is sent once
+     *  it reaches BATCH_SIZE, and never grows past it by more than one
+     *  object's header. */
+    private static final int MAX_BATCH = BATCH_SIZE + OBJECT_HEADER;
+
+    /** Largest frame payload accepted: a compressed batch or chunk, with
+     *  room for what zlib adds to data it cannot compress. */
+    private static final int MAX_FRAME = MAX_BATCH + (MAX_BATCH >> 8) + 64;
+
+    /** Largest payload accepted of a REFS or FETCH frame, which list
+     *  commits: about a million and a half of them. */
+    private static final int MAX_LIST_FRAME = 1 << 26;
+
+    /** Seconds either side waits for the other before giving up. */
+    static final long TIMEOUT_SECONDS = 60;
+
+    /** A connection carrying frames over a socket channel. */
+    static final class Connection implements Closeable {
+        /** The channel, in non-blocking mode. */
+        private final SocketChannel channel;
+        /** Selector waiting on the channel. */
+        private final Selector selector;
+        /** The key of the channel in selector. */
+        private final SelectionKey key;
+        /** Bytes sent and received so far, framing included. */
+        private long wireBytes;
+        /** A frame kind read by peek and not yet consumed, or -1. */
+        private int pushedBack = -1;
+
+        /** A connection over the connected CHANNEL. */
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            key = channel.register(selector, 0);
+        }
+
+        /** Sends a frame of kind KIND carrying PAYLOAD. */
+        void send(byte kind, byte[] payload) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(5).put(kind).putInt(payload.length).flip();
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+            while (header.hasRemaining() || buffers[1].hasRemaining()) {
+                if (channel.write(buffers) == 0) {
+                    await(SelectionKey.OP_WRITE);
+                }
+            }
+            wireBytes += 5 + payload.length;
+        }
+
+        /** Returns the payload of the next frame, which must be of kind
+         *  KIND.  Throws a GitletException with its message if it is an
+         *  ERROR frame instead. */
+        DataInputStream expect(byte kind) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(5);
+            fill(header);
+            int length = header.getInt(1);
+            int limit = header.get(0) == REFS || header.get(0) == FETCH
+                ? MAX_LIST_FRAME : MAX_FRAME;
+            if (length < 0 || length > limit) {
+                throw new IOException("frame too large");
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            fill(payload);
+            wireBytes += 5 + length;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+            if (header.get(0) == ERROR && kind != ERROR) {
+                throw error(in.readUTF());
+            } else if (header.get(0) != kind) {
+                throw new IOException("unexpected frame");
+            }
+            return in;
+        }
+
+        /** Returns the kind of the next frame, without consuming it, or -1
+         *  if the other side closed the connection at a frame boundary. */
+        int peek() throws IOException {
+            if (pushedBack >= 0) {
+                return pushedBack;
+            }
+            ByteBuffer first = ByteBuffer.allocate(1);
+            while (channel.read(first) == 0) {
+                await(SelectionKey.OP_READ);
+            }
+            if (!first.hasRemaining()) {
+                pushedBack = first.get(0) & 0xff;
+                return pushedBack;
+            }
+            return -1;
+        }
+
+        /** Reads into BUF until it is full. */
+        private void fill(ByteBuffer buf) throws IOException {
+            if (pushedBack >= 0 && buf.hasRemaining()) {
+                buf.put((byte) pushedBack);
+                pushedBack = -1;
+            }
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf);
+                if (n < 0) {
+                    throw new EOFException("connection closed");
+                } else if (n == 0) {
+                    await(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        /** Waits until the channel is ready for OPS, or throws if it has
+         *  not been for TIMEOUT_SECONDS. */
+        private void await(int ops) throws IOException {
+            key.interestOps(ops);
+            int ready = selector.select(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            selector.selectedKeys().clear();
+            key.interestOps(0);
+            if (ready == 0) {
+                throw new SocketTimeoutException("timed out");
+            }
+        }
+
+        /** Returns the number of bytes sent and received so far. */
+        long getWireBytes() {
+            return wireBytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                selector.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /** Sends objects over a connection as an object stream. */
+    static final class ObjectWriter {
+        /** The connection. */
+        private final Connection connection;
+        /** The objects of the batch not yet sent. */
+        private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        /** Writes to batch. */
+        private final DataOutputStream out = new DataOutputStream(batch);
+        /** Number of objects written. */
+        private int count;
+
+        /** A stream of objects over CONNECTION. */
+        ObjectWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        /** Sends CONTENTS as the object of type TYPE whose hash is HASH,
+         *  with the batch it ends up in, or on its own if it is larger
+         *  than BATCH_SIZE. */
+        void write(byte type, String hash, byte[] contents) {
+            if (contents.length > BATCH_SIZE) {
+                write(type, hash, new ByteArrayInputStream(contents));
+                return;
+            }
+            try {
+                if (batch.size() + OBJECT_HEADER + contents.length > MAX_BATCH) {
+                    flush();
+                }
+                out.writeByte(type);
+                out.write(fromHex(hash));
+                out.writeInt(contents.length);
+                out.write(contents);
+                count += 1;
+                if (batch.size() >= BATCH_SIZE) {
+                    flush();
+                }
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+
+        /** Sends the contents of CONTENTS, read to its end, as the object
+         *  of type TYPE whose hash is HASH, and returns their length.  An
+         *  object no larger than BATCH_SIZE goes in a batch; a larger one
+         *  is read and sent a chunk at a time. */
+        long write(byte type, String hash, InputStream contents) {
+            try {
+                byte[] chunk = contents.readNBytes(BATCH_SIZE + 1);
+                if (chunk.length <= BATCH_SIZE) {
+                    write(type, hash, chunk);
+                    return chunk.length;
+                }
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(1 + PackFile.HASH_SIZE);
+                connection.send(OBJECT, header.put(type).put(fromHex(hash)).array());
+                long length = 0;
+                while (chunk.length > 0) {
+                    send(CHUNK, chunk);
+                    length += chunk.length;
+                    chunk = contents.readNBytes(BATCH_SIZE);
+                }
+                count += 1;
+                return length;
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+
+        /** Sends the objects of the current batch. */
+        private void flush() throws IOException {
+            if (batch.size() == 0) {
+                return;
+            }
+            byte[] raw = batch.toByteArray();
+            batch.reset();
+            send(OBJECTS, raw);
+        }
+
+        /** Sends RAW compressed, behind its length, in a frame of kind
+         *  KIND. */
+        private void send(byte kind, byte[] raw) throws IOException {
+            byte[] compressed = compress(raw);
+            ByteBuffer payload = ByteBuffer.allocate(4 + compressed.length);
+            payload.putInt(raw.length).put(compressed);
+            connection.send(kind, payload.array());
+        }
+
+        /** Sends what is left of the stream and ends it. */
+        void finish() throws IOException {
+            flush();
+            connection.send(DONE, ByteBuffer.allocate(4).putInt(count).array());
+        }
+    }
+
+    /** Receives an object stream into a repository. */
+    static final class ObjectReader {
+        /** The repository. */
+        private final File gitletDir;
+        /** The commits received, in order. */
+        private final List<String> commits = new ArrayList<>();
+        /** Number of objects received. */
+        private int objects;
+        /** Bytes of object contents received. */
+        private long bytes;
+
+        /** A reader storing objects in GITLETDIR. */
+        ObjectReader(File gitletDir) {
+            this.gitletDir = gitletDir;
+        }
+
+        /** Stores the objects of the stream arriving on CONNECTION as
+         *  they arrive, up to the end of the stream. */
+        void receive(Connection connection) throws IOException {
+            CommitIndex commitIndex = CommitIndex.load(gitletDir);
+            int received = 0;
+            try {
+                while (true) {
+                    int kind = connection.peek();
+                    if (kind == OBJECTS) {
+                        ByteBuffer batch = ByteBuffer.wrap(inflate(connection.expect(OBJECTS)));
+                        while (batch.hasRemaining()) {
+                            received += 1;
+                            store(batch, commitIndex);
+                        }
+                    } else if (kind == OBJECT) {
+                        received += 1;
+                        store(connection, commitIndex);
+                    } else {
+                        break;
+                    }
+                }
+                DataInputStream done = connection.expect(DONE);
+                if (done.readInt() != received) {
+                    throw new IOException("object stream truncated");
+                }
+            } finally {
+                commitIndex.save();
+            }
+        }
+
+        /** Returns the uncompressed contents of the OBJECTS or CHUNK
+         *  frame FRAME. */
+        private static byte[] inflate(DataInputStream frame) throws IOException {
+            int length = frame.readInt();
+            if (length < 0 || length > MAX_BATCH) {
+                throw new IOException("batch too large");
+            }
+            byte[] result = new byte[length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(frame.readAllBytes());
+                int n = 0;
+                while (n < length && !inflater.finished()) {
+                    int k = inflater.inflate(result, n, length - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += k;
+                }
+                if (n != length || !inflater.finished()) {
+                    throw new IOException("corrupt batch");
+                }
+            } catch (DataFormatException excp) {
+                throw new IOException("corrupt batch");
+            } finally {
+                inflater.end();
+            }
+            return result;
+        }
+
+        /** Stores the next object of BATCH, adding commits to
+         *  COMMITINDEX. */
+        private void store(ByteBuffer batch, CommitIndex commitIndex) throws IOException {
+            if (batch.remaining() < OBJECT_HEADER) {
+                throw new IOException("corrupt batch");
+            }
+            byte type = batch.get();
+            byte[] rawHash = new byte[PackFile.HASH_SIZE];
+            batch.get(rawHash);
+            int length = batch.getInt();
+            if (length < 0 || length > batch.remaining()) {
+                throw new IOException("corrupt batch");
+            }
+            byte[] contents = new byte[length];
+            batch.get(contents);
+            store(type, toHex(rawHash), contents, commitIndex);
+        }
+
+        /** Stores the object whose OBJECT frame is next on CONNECTION,
+         *  adding it to COMMITINDEX if it is a commit.  A blob is written
+         *  as its chunks arrive. */
+        private void store(Connection connection, CommitIndex commitIndex) throws IOException {
+            DataInputStream header = connection.expect(OBJECT);
+            byte type = header.readByte();
+            byte[] rawHash = new byte[PackFile.HASH_SIZE];
+            header.readFully(rawHash);
+            String hash = toHex(rawHash);
+            InputStream chunks = new Chunks(connection);
+            if (type != ObjectStore.BLOB) {
+                byte[] contents = chunks.readNBytes(MAX_LIST_FRAME + 1);
+                if (contents.length > MAX_LIST_FRAME) {
+                    throw new IOException("object " + hash + " too large");
+                }
+                store(type, hash, contents, commitIndex);
+                return;
+            }
+            long length = ObjectStore.writeBlob(gitletDir, hash, chunks);
+            if (length < 0) {
+                throw new IOException("object " + hash + " does not match its hash");
+            }
+            objects += 1;
+            bytes += length;
+        }
+
+        /** Stores CONTENTS as the object of type TYPE whose hash is HASH,
+         *  adding it to COMMITINDEX if it is a commit, after checking
+         *  it. */
+        private void store(byte type, String hash, byte[] contents, CommitIndex commitIndex)
+                throws IOException {
+            if (!sha1(contents).equals(hash)) {
+                throw new IOException("object " + hash + " does not match its hash");
+            }
+            if (type == ObjectStore.COMMIT && !Commit.isEncoded(contents)
+                || type != ObjectStore.COMMIT && type != ObjectStore.TREE
+                   && type != ObjectStore.BLOB) {
+                throw new IOException("object " + hash + " of unknown type");
+            }
+            if (!ObjectStore.contains(gitletDir, type, hash)) {
+                ObjectStore.write(gitletDir, type, hash, contents);
+                if (type == ObjectStore.COMMIT) {
+                    commitIndex.add(hash);
+                    commits.add(hash);
+                }
+            }
+            objects += 1;
+            bytes += contents.length;
+        }
+
+        /** Returns the commits received and stored, in order. */
+        List<String> getCommits() {
+            return commits;
+        }
+
+        /** Returns the number of objects received. */
+        int getObjects() {
+            return objects;
+        }
+
+        /** Returns the number of bytes of object contents received. */
+        long getBytes() {
+            return bytes;
+        }
+    }
+
+    /** The contents of an object sent in CHUNK frames, read from the
+     *  connection a chunk at a time.  Ends at the first frame that is not
+     *  a CHUNK. */
+    private static final class Chunks extends InputStream {
+        /** The connection. */
+        private final Connection connection;
+        /** The rest of the current chunk. */
+        private ByteBuffer chunk = ByteBuffer.allocate(0);
+
+        /** The chunks arriving next on CONNECTION. */
+        Chunks(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!chunk.hasRemaining()) {
+                if (connection.peek() != CHUNK) {
+                    return -1;
+                }
+                chunk = ByteBuffer.wrap(ObjectReader.inflate(connection.expect(CHUNK)));
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Returns STRINGS written as DataOutputStream.writeUTF writes them,
+     *  one after the other, as a frame payload. */
+    static byte[] strings(String... strings) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Writes to OUT the number of HASHES and then each of them. */
+    static void writeHashes(DataOutputStream out, Collection<String> hashes)
+            throws IOException {
+        out.writeInt(hashes.size());
+        for (String hash : hashes) {
+            out.writeUTF(hash);
+        }
+    }
+
+    /** Returns the hashes written by writeHashes, read from IN. */
+    static List<String> readHashes(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("bad hash count");
+        }
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            result.add(readHash(in));
+        }
+        return result;
+    }
+
+    /** Returns the commit hash read from IN, which must be one. */
+    static String readHash(DataInputStream in) throws IOException {
+        String hash = in.readUTF();
+        if (!isUid(hash)) {
+            throw new IOException("bad commit hash");
+        }
+        return hash;
+    }
+
+    /** Returns true iff NAME may be the name of a branch of a server:
+     *  a single non-empty path component. */
+    static boolean isBranchName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..")
+               && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+    }
+}
@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A gitlet server: serves the branches of one repository to the
+ *  clients of other hosts that have it as a gitlet:// remote, over the
+ *  protocol of RemoteProtocol.
+ *
+ *  The server takes one connection at a time and answers its requests in
+ *  order until the client closes it, holding the repository lock shared
+ *  meanwhile (see RepoLock), so that gc waits for transfers to finish.
+ *  Fetches are served as Transfer sends to a local repository, minus
+ *  what the client says it has.  A push moves the branch only if it
+ *  still points where the client saw it and the new commit descends
+ *  from it; the objects it brought stay either way, for gc to find.
+ *
+ *  There is no authentication: anyone who can connect can read every
+ *  branch and create or move any of them by pushing.  So the server
+ *  listens only on the loopback interface unless told to listen on some
+ *  other address, which should be one only trusted hosts can reach.  A
+ *  request that fails in any way drops its connection, not the server.
+ *
+ *  @author onemeter
+ */
+class RemoteServer {
+
+    /** Serves the repository GITLETDIR on PORT (any free port if 0) of
+     *  the local address ADDRESS, or of the loopback interface if ADDRESS
+     *  is null, until killed, announcing the port on standard output. */
+    static void serve(File gitletDir, String address, int port) {
+        InetSocketAddress local = address == null
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+            : new InetSocketAddress(address, port);
+        if (local.isUnresolved()) {
+            throw error("Could not serve on %s: unknown address", address);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(local);
+            System.out.println("Serving on port "
+                    + ((InetSocketAddress) server.getLocalAddress()).getPort() + ".");
+            if (!local.getAddress().isLoopbackAddress()) {
+                System.out.println("Anyone who can reach this address can push to "
+                        + "this repository.");
+            }
+            System.out.flush();
+            while (true) {
+                SocketChannel client = server.accept();
+                try (RemoteProtocol.Connection connection = new RemoteProtocol.Connection(client)) {
+                    RepoLock.withShared(gitletDir, () -> {
+                        handle(gitletDir, connection);
+                        return null;
+                    });
+                } catch (IOException | RuntimeException excp) {
+                    /* The client went away, sent garbage or asked for what
+                     * could not be read; nothing to report to. */
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not serve on port %d: %s", port, excp.getMessage());
+        }
+    }
+
+    /** Answers the requests arriving on CONNECTION to GITLETDIR until the
+     *  client closes it. */
+    private static void handle(File gitletDir, RemoteProtocol.Connection connection)
+            throws IOException {
+        DataInputStream hello = connection.expect(RemoteProtocol.HELLO);
+        if (hello.readInt() != RemoteProtocol.MAGIC
+            || hello.readInt() != RemoteProtocol.VERSION) {
+            connection.send(RemoteProtocol.ERROR,
+                    RemoteProtocol.strings("Unsupported gitlet protocol version."));
+            return;
+        }
+        connection.send(RemoteProtocol.HELLO, ByteBuffer.allocate(8)
+                .putInt(RemoteProtocol.MAGIC).putInt(RemoteProtocol.VERSION).array());
+        while (true) {
+            int kind = connection.peek();
+            if (kind < 0) {
+                return;
+            }
+            try {
+                switch (kind) {
+                    case RemoteProtocol.LIST:
+                        connection.expect(RemoteProtocol.LIST);
+                        list(gitletDir, connection);
+                        break;
+                    case RemoteProtocol.FETCH:
+                        fetch(gitletDir, connection,
+                              connection.expect(RemoteProtocol.FETCH));
+                        break;
+                    case RemoteProtocol.PUSH:
+                        push(gitletDir, connection, connection.expect(RemoteProtocol.PUSH));
+                        break;
+                    default:
+                        throw new IOException("unknown request");
+                }
+            } catch (GitletException excp) {
+                connection.send(RemoteProtocol.ERROR, RemoteProtocol.strings(excp.getMessage()));
+            }
+        }
+    }
+
+    /** Sends the branches and shallow boundary of GITLETDIR over
+     *  CONNECTION. */
+    private static void list(File gitletDir, RemoteProtocol.Connection connection)
+            throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(reply);
+        List<String> branches = plainFilenamesIn(join(gitletDir, "refs", "heads"));
+        branches = branches == null ? List.of() : branches;
+        out.writeInt(branches.size());
+        for (String branch : branches) {
+            out.writeUTF(branch);
+            out.writeUTF(readContentsAsString(join(gitletDir, "refs", "heads", branch)));
+        }
+        RemoteProtocol.writeHashes(out, ShallowBoundary.load(gitletDir));
+        connection.send(RemoteProtocol.REFS, reply.toByteArray());
+    }
+
+    /** Answers the FETCH request REQUEST for GITLETDIR over CONNECTION. */
+    private static void fetch(File gitletDir, RemoteProtocol.Connection connection,
+                              DataInputStream request) throws IOException {
+        String branch = request.readUTF();
+        int depth = request.readInt();
+        List<String> haves = RemoteProtocol.readHashes(request);
+        List<String> boundary = RemoteProtocol.readHashes(request);
+        if (depth < 0) {
+            throw new IOException("bad request");
+        }
+        File branchFile = join(gitletDir, "refs", "heads", branch);
+        if (!RemoteProtocol.isBranchName(branch) || !branchFile.isFile()) {
+            throw error("That remote does not have that branch.");
+        }
+        String tip = readContentsAsString(branchFile);
+        connection.send(RemoteProtocol.OK, RemoteProtocol.strings(tip));
+        RemoteProtocol.ObjectWriter out = new RemoteProtocol.ObjectWriter(connection);
+        Transfer.fetch(gitletDir, out, tip, depth, haves, boundary);
+        out.finish();
+    }
+
+    /** Answers the PUSH request REQUEST for GITLETDIR over CONNECTION,
+     *  receiving the objects that follow it. */
+    private static void push(File gitletDir, RemoteProtocol.Connection connection,
+                             DataInputStream request) throws IOException {
+        String branch = request.readUTF();
+        String expected = request.readUTF();
+        String tip = RemoteProtocol.readHash(request);
+        RemoteProtocol.ObjectReader reader = new RemoteProtocol.ObjectReader(gitletDir);
+        reader.receive(connection);
+
+        File branchFile = join(gitletDir, "refs", "heads", branch);
+        if (!RemoteProtocol.isBranchName(branch) || branchFile.isDirectory()) {
+            throw error("A branch with that name does not exist.");
+        }
+        String current = branchFile.isFile() ? readContentsAsString(branchFile) : "";
+        if (!current.equals(expected)) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, tip)
+            || !ShallowBoundary.orphans(gitletDir, reader.getCommits()).isEmpty()) {
+            throw error("The pushed history is incomplete.");
+        }
+        ShallowBoundary.update(gitletDir, List.of());
+        if (!current.isEmpty()) {
+            CommitGraph graph = CommitGraph.load(gitletDir);
+            boolean isAncestor = graph.isAncestor(graph.ensure(current), graph.ensure(tip));
+            graph.save();
+            if (!isAncestor) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+        }
+        writeContents(branchFile, tip);
+        connection.send(RemoteProtocol.OK, new byte[0]);
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A lock on a repository, held on its lock file, that keeps gc from
+ *  running at the same time as any other command.
+ *
+ *  Ordinary commands hold the lock shared, so they run side by side as
+ *  before, and wait while gc holds it exclusively.  gc does not wait for
+ *  other processes: if any holds the lock, it gives up.  The locks are
+ *  operating-system file locks, so they are released when the process
+ *  that holds them dies.  A repository whose .gitlet directory does not
+ *  exist (yet) is not locked.
+ *
+ *  A process holds at most one operating-system lock per repository,
+ *  since closing a second channel on the lock file would release the
+ *  first lock too.  The threads of the process share it instead: shared
+ *  holders are counted, and the lock is released only when the last of
+ *  them lets go.  A thread asking for the exclusive lock waits for the
+ *  process's other holders to finish, and threads asking for a shared one
+ *  wait while another thread holds it exclusively.  A thread may take
+ *  the lock shared again while it holds it, as it does when a remote is
+ *  the repository itself, but may not then ask for it exclusively.
+ *
+ *  @author onemeter
+ */
+class RepoLock implements AutoCloseable {
+
+    /** Name of the lock file in the .gitlet directory. */
+    static final String LOCK_FILE = "lock";
+
+    /** An action run while holding a lock, returning a T and perhaps
+     *  throwing an E. */
+    interface Action<T, E extends Exception> {
+        /** Runs the action and returns its result. */
+        T run() throws E;
+    }
+
+    /** The locks this process holds on one lock file. */
+    private static class Holder {
+        /** Channel on the lock file, or null while the lock is being
+         *  acquired. */
+        FileChannel channel;
+        /** The operating-system lock, or null while it is being
+         *  acquired. */
+        FileLock lock;
+        /** The thread holding the lock exclusively, or null. */
+        Thread exclusive;
+        /** The threads holding the lock shared, once per hold. */
+        final List<Thread> shared = new ArrayList<>();
+    }
+
+    /** The locks this process holds, by lock file.  Guards itself. */
+    private static final Map<File, Holder> HELD = new HashMap<>();
+
+    /** The lock file, or null if nothing is locked. */
+    private final File file;
+
+    /** The thread that took this lock. */
+    private final Thread owner;
+
+    /** True iff this lock is exclusive. */
+    private final boolean isExclusive;
+
+    /** A lock on FILE (null for none) taken by the current thread,
+     *  exclusive iff ISEXCLUSIVE. */
+    private RepoLock(File file, boolean isExclusive) {
+        this.file = file;
+        this.owner = Thread.currentThread();
+        this.isExclusive = isExclusive;
+    }
+
+    /** Returns a shared lock on the repository GITLETDIR, waiting for gc
+     *  to finish if it is running. */
+    static RepoLock shared(File gitletDir) {
+        if (!gitletDir.isDirectory()) {
+            return new RepoLock(null, false);
+        }
+        File file = lockFile(gitletDir);
+        Thread self = Thread.currentThread();
+        Holder holder;
+        synchronized (HELD) {
+            while (true) {
+                holder = HELD.get(file);
+                if (holder == null) {
+                    // this thread acquires the lock for the process
+                    holder = new Holder();
+                    holder.shared.add(self);
+                    HELD.put(file, holder);
+                    break;
+                } else if (holder.exclusive == self) {
+                    // gc reading its own repository as a remote
+                    return new RepoLock(null, false);
+                } else if (holder.exclusive == null && holder.lock != null) {
+                    holder.shared.add(self);
+                    return new RepoLock(file, false);
+                }
+                await();
+            }
+        }
+        // may wait for gc in another process, so not while holding HELD
+        FileChannel channel = open(file);
+        try {
+            FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+            synchronized (HELD) {
+                holder.channel = channel;
+                holder.lock = lock;
+                HELD.notifyAll();
+            }
+            return new RepoLock(file, false);
+        } catch (IOException excp) {
+            closeQuietly(channel);
+            synchronized (HELD) {
+                HELD.remove(file);
+                HELD.notifyAll();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns an exclusive lock on the repository GITLETDIR, waiting for
+     *  the other threads of this process that hold it to finish.  Throws
+     *  a GitletException if another process holds the lock, or this
+     *  thread does. */
+    static RepoLock exclusive(File gitletDir) {
+        File file = lockFile(gitletDir);
+        Thread self = Thread.currentThread();
+        synchronized (HELD) {
+            while (HELD.containsKey(file)) {
+                Holder holder = HELD.get(file);
+                if (holder.exclusive == self || holder.shared.contains(self)) {
+                    throw error("Another gitlet command is running; try again later.");
+                }
+                await();
+            }
+            FileChannel channel = open(file);
+            FileLock lock;
+            try {
+                lock = channel.tryLock(0, Long.MAX_VALUE, false);
+            } catch (IOException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                closeQuietly(channel);
+                throw error("Another gitlet command is running; try again later.");
+            }
+            Holder holder = new Holder();
+            holder.channel = channel;
+            holder.lock = lock;
+            holder.exclusive = self;
+            HELD.put(file, holder);
+            return new RepoLock(file, true);
+        }
+    }
+
+    /** Runs ACTION holding a shared lock on the repository GITLETDIR and
+     *  returns its result.  See shared(File). */
+    static <T, E extends Exception> T withShared(File gitletDir, Action<T, E> action)
+            throws E {
+        RepoLock lock = shared(gitletDir);
+        try {
+            return action.run();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Runs ACTION holding an exclusive lock on the repository GITLETDIR
+     *  and returns its result.  See exclusive(File). */
+    static <T, E extends Exception> T withExclusive(File gitletDir, Action<T, E> action)
+            throws E {
+        RepoLock lock = exclusive(gitletDir);
+        try {
+            return action.run();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Releases this lock, and the operating-system lock with it if it
+     *  was the last this process held on the repository. */
+    @Override
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        synchronized (HELD) {
+            Holder holder = HELD.get(file);
+            if (isExclusive) {
+                holder.exclusive = null;
+            } else {
+                holder.shared.remove(owner);
+            }
+            if (holder.exclusive == null && holder.shared.isEmpty()) {
+                HELD.remove(file);
+                try {
+                    holder.lock.release();
+                } catch (IOException excp) {
+                    /* Closing the channel releases it anyway. */
+                }
+                closeQuietly(holder.channel);
+            }
+            HELD.notifyAll();
+        }
+    }
+
+    /** Waits, holding HELD, for another thread to change what it
+     *  holds. */
+    private static void await() {
+        try {
+            HELD.wait();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("interrupted waiting for the repository lock");
+        }
+    }
+
+    /** Returns the lock file of GITLETDIR, by its canonical path. */
+    private static File lockFile(File gitletDir) {
+        try {
+            return join(gitletDir, LOCK_FILE).getCanonicalFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a channel on the lock file FILE, creating it if need
+     *  be. */
+    private static FileChannel open(File file) {
+        try {
+            return FileChannel.open(file.toPath(),
+                                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes CHANNEL, ignoring errors. */
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /* Nothing more to release. */
+        }
+    }
+}
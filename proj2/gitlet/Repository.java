@@ -1,6 +1,13 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static gitlet.Utils.*;
 
@@ -9,363 +16,609 @@ import java.util.*;
 /**
  * Represents a gitlet repository.
  *
+ * A Repository is rooted at the working directory it is created with, so
+ * one process can work with any number of repositories.  Commands return
+ * their results rather than printing them, and report errors by throwing
+ * a GitletException with the message to show; Main formats both for the
+ * command line.  A Repository is not safe for use by several threads at
+ * once, but separate repositories may be used from separate threads.
+ *
  * @author onemeter
  */
 public class Repository {
 
     /**
-     * The current working directory.
+     * The working directory of this repository.
      */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    private final File cwd;
 
     /**
      * The .gitlet directory.
      */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    private final File gitletDir;
 
     /** .gitlet subdirectories and files */
     /**
      * The HEAD file pointing to current branch.
      */
-    public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
+    private final File headFile;
 
     /**
      * The local branches directory.
      */
-    public static final File HEADS_DIR = join(GITLET_DIR, "refs", "heads");
+    private final File headsDir;
 
     /**
      * The remote repository directory.
      */
-    public static final File REMOTES_REPO_DIR = join(GITLET_DIR, "remotes");
+    private final File remotesRepoDir;
 
     /**
      * The objects directory for storing blobs.
      */
-    public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    private final File objectsDir;
 
     /**
      * The commits directory for storing commit objects.
      */
-    public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
+    private final File commitsDir;
+
+    /**
+     * Largest total encoded size of the commits in commitCache.
+     */
+    private static final long COMMIT_CACHE_SIZE = 8 << 20;
+
+    /**
+     * Commits parsed by this repository, by hash, sized by their encodings.
+     */
+    private final ObjectCache<Commit> commitCache = new ObjectCache<>(COMMIT_CACHE_SIZE);
+
+    /**
+     * Largest total estimated memory of the snapshots in snapshotCache.
+     */
+    private static final long SNAPSHOT_CACHE_SIZE = 16 << 20;
 
     /**
-     * The staging/add directory for files staged for addition.
+     * Estimated memory of one snapshot entry besides its two strings.
      */
-    public static final File STAGING_ADD_DIR = join(GITLET_DIR, "staging", "add");
+    private static final long SNAPSHOT_ENTRY_OVERHEAD = 96;
 
     /**
-     * The staging/remove directory for files staged for removal.
+     * Flattened snapshots of the commits read by this repository, by
+     * root tree, sized by an estimate of the memory they take.
      */
-    public static final File STAGING_REMOVE_DIR = join(GITLET_DIR, "staging", "remove");
+    private final ObjectCache<Map<String, String>> snapshotCache =
+            new ObjectCache<>(SNAPSHOT_CACHE_SIZE);
+
+    /**
+     * The stat index as last loaded or saved by this repository.
+     */
+    private StatIndex statIndex;
+
+    /**
+     * How the path filters fared in the last path-limited log.
+     */
+    private FilterStats filterStats = new FilterStats(0, 0, 0, 0);
+
+    /**
+     * The repository whose working directory is WORKDIR.  Its .gitlet
+     * directory need not exist yet.
+     */
+    public Repository(File workDir) {
+        cwd = workDir.getAbsoluteFile();
+        gitletDir = join(cwd, ".gitlet");
+        headFile = join(gitletDir, "HEAD");
+        headsDir = join(gitletDir, "refs", "heads");
+        remotesRepoDir = join(gitletDir, "remotes");
+        objectsDir = join(gitletDir, "objects");
+        commitsDir = join(gitletDir, "commits");
+    }
 
-    private static void checkInit() {
-        if (!GITLET_DIR.exists()) {
+    /**
+     * Returns the working directory of this repository.
+     */
+    public File getWorkDir() {
+        return cwd;
+    }
+
+    /**
+     * Returns the .gitlet directory of this repository.
+     */
+    public File getGitletDir() {
+        return gitletDir;
+    }
+
+    private void checkInit() {
+        if (!gitletDir.exists()) {
             throw error("Not in an initialized Gitlet directory.");
         }
     }
 
-    public static void init() {
-        if (GITLET_DIR.exists()) {
+    private String normalizePath(String filename) {
+        // snapshot paths are relative to cwd with '/' between components
+        Path path = cwd.toPath().relativize(cwd.toPath().resolve(filename).normalize());
+        if (path.startsWith("..") || path.startsWith(".gitlet")) {
+            throw error("File does not exist.");
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    private List<String> workingFiles() {
+        // all plain files under cwd as snapshot paths, in sorted order
+        List<String> files = new ArrayList<>();
+        collectWorkingFiles(cwd, "", files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private void collectWorkingFiles(File dir, String prefix, List<String> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isFile()) {
+                files.add(prefix + entry.getName());
+            } else if (entry.isDirectory() && !entry.equals(gitletDir)) {
+                collectWorkingFiles(entry, prefix + entry.getName() + "/", files);
+            }
+        }
+    }
+
+    private void deleteWorkingFile(String filename) {
+        // delete the file, then any directories it leaves empty
+        File file = join(cwd, filename);
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(cwd); dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    private StatIndex loadIndex() {
+        // keep the index between commands unless another process rewrote it
+        if (statIndex == null || !statIndex.isCurrent()) {
+            statIndex = StatIndex.load(gitletDir, cwd);
+        }
+        return statIndex;
+    }
+
+    private Commit readCommit(String commitHash) {
+        // commits never change, so parsed ones can be kept for later commands
+        Commit commit = commitCache.get(commitHash);
+        if (commit == null) {
+            byte[] contents = ObjectStore.read(gitletDir, ObjectStore.COMMIT, commitHash);
+            commit = Commit.decode(gitletDir, contents);
+            commitCache.put(commitHash, commit, contents.length);
+        }
+        return commit;
+    }
+
+    private Map<String, String> snapshotOf(Commit commit) {
+        // a flattened snapshot can be far larger than the commit's
+        // encoding, so it is kept apart from cached commits and charged
+        // for its entries
+        String tree = commit.getTree();
+        Map<String, String> snapshot = tree == null ? null : snapshotCache.get(tree);
+        if (snapshot == null) {
+            snapshot = commit.flattenSnapshots();
+            if (tree != null) {
+                long size = 0;
+                for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+                    size += 2L * (entry.getKey().length() + entry.getValue().length())
+                            + SNAPSHOT_ENTRY_OVERHEAD;
+                }
+                snapshotCache.put(tree, snapshot, size);
+            }
+        }
+        return snapshot;
+    }
+
+    public void init() {
+        if (gitletDir.exists()) {
             throw error("A Gitlet version-control system already "
                     + "exists in the current directory.");
         }
 
-        GITLET_DIR.mkdir();
-        HEADS_DIR.mkdirs();
-        REMOTES_REPO_DIR.mkdir();
-        OBJECTS_DIR.mkdir();
-        COMMITS_DIR.mkdir();
-        STAGING_ADD_DIR.mkdirs();
-        STAGING_REMOVE_DIR.mkdirs();
+        gitletDir.mkdir();
+        headsDir.mkdirs();
+        remotesRepoDir.mkdir();
+        objectsDir.mkdir();
+        commitsDir.mkdir();
+        ObjectStore.initFormat(gitletDir);
 
         // Create initial commit and persist it
         Commit initialCommit = new Commit("initial commit", new Date(0),
-                null, null, new HashMap<>());
-        String hashValue = sha1(serialize(initialCommit));
-        writeObject(join(COMMITS_DIR, hashValue), initialCommit);
+                null, null, Tree.update(gitletDir, null, new HashMap<>()), gitletDir);
+        String hashValue = ObjectStore.writeCommit(gitletDir, initialCommit);
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        graph.add(hashValue, null, null);
+        graph.save();
+        CommitIndex commitIndex = CommitIndex.load(gitletDir);
+        commitIndex.add(hashValue);
+        commitIndex.save();
+        CommitLog commitLog = CommitLog.load(gitletDir);
+        commitLog.add(hashValue, initialCommit);
+        commitLog.save();
 
         // Initialize master branch
-        writeContents(join(HEADS_DIR, "master"), hashValue);
+        writeContents(join(headsDir, "master"), hashValue);
 
         // HEAD points to master
-        writeContents(HEAD_FILE, "master");
+        writeContents(headFile, "master");
     }
 
-    public static void add(String filename) {
+    public void add(String filename) {
         checkInit();
-        File fileToAdd = join(CWD, filename);
-        if (!fileToAdd.exists()) {
+        filename = normalizePath(filename);
+        File fileToAdd = join(cwd, filename);
+        if (!fileToAdd.isFile()) {
             throw error("File does not exist.");
         }
 
-        // persist object blob
-        String fileContent = readContentsAsString(fileToAdd);
-        String hashValue = sha1(fileContent);
-        writeContents(join(OBJECTS_DIR, hashValue), fileContent);
-
-        // stage file for addition
-        writeContents(join(STAGING_ADD_DIR, filename), hashValue);
-
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
+
+        // hash file, reusing the cached hash if its stat data are unchanged
+        StatIndex index = loadIndex();
+        String hashValue = index.hash(filename);
+        index.save();
+
+        // persist object blob, as a delta against the tracked version if any
+        if (!ObjectStore.contains(gitletDir, ObjectStore.BLOB, hashValue)) {
+            hashValue = ObjectStore.writeBlob(gitletDir, fileToAdd,
+                    currentCommit.getBlobHash(filename));
+        }
 
-        // if file is tracked in current commit and unchanged, unstage it
+        StagingArea stage = StagingArea.load(gitletDir);
+        // if file is tracked in current commit and unchanged, unstage it;
+        // otherwise stage it for addition
         if (currentCommit.hasFile(filename, hashValue)) {
-            join(STAGING_ADD_DIR, filename).delete();
+            stage.unstageAddition(filename);
+        } else {
+            stage.stageAddition(filename, hashValue);
         }
 
         // if file is staged for removal, unstage it
-        join(STAGING_REMOVE_DIR, filename).delete();
+        stage.unstageRemoval(filename);
+        stage.save();
+    }
+
+    private boolean isStagingEmpty() {
+        return StagingArea.load(gitletDir).isEmpty();
     }
 
-    private static boolean isStagingEmpty() {
-        List<String> adds = plainFilenamesIn(STAGING_ADD_DIR);
-        List<String> removes = plainFilenamesIn(STAGING_REMOVE_DIR);
-        return (adds == null || adds.isEmpty()) && (removes == null || removes.isEmpty());
+    public String commit(String message) {
+        return commit(message, null);
     }
 
-    public static void commit(String message, String secondParentHash) {
+    private String commit(String message, String secondParentHash) {
         checkInit();
-        if (isStagingEmpty()) {
+        StagingArea stage = StagingArea.load(gitletDir);
+        if (stage.isEmpty()) {
             throw error("No changes added to the commit.");
         }
         if (message.trim().isEmpty()) {
             throw error("Please enter a commit message.");
         }
 
-        // copy file snapshots from current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
-        HashMap<String, String> newFileSnapshots = new HashMap<>(currentCommit.getFileSnapshots());
-
-        // apply staged additions and delete staging files
-        for (String stagedFile : plainFilenamesIn(STAGING_ADD_DIR)) {
-            String blobHash = readContentsAsString(join(STAGING_ADD_DIR, stagedFile));
-            newFileSnapshots.put(stagedFile, blobHash);
-            join(STAGING_ADD_DIR, stagedFile).delete();
+        // read current commit and the root tree of its snapshot
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
+        String currentTree = currentCommit.getTree();
+        if (currentTree == null) {
+            // commit predates trees: build trees for its whole snapshot once
+            currentTree = Tree.update(gitletDir, null, snapshotOf(currentCommit));
         }
 
-        // apply staged removals and delete staging files
-        for (String stagedFile : plainFilenamesIn(STAGING_REMOVE_DIR)) {
-            newFileSnapshots.remove(stagedFile);
-            join(STAGING_REMOVE_DIR, stagedFile).delete();
+        // apply staged additions and removals, rewriting only the trees
+        // along their paths, then clear staging area
+        HashMap<String, String> changes = new HashMap<>(stage.getAdditions());
+        for (String stagedFile : stage.getRemovals()) {
+            changes.put(stagedFile, null);
         }
+        String newTree = Tree.update(gitletDir, currentTree, changes);
+        stage.clear();
+        stage.save();
 
         // create new commit
         Commit newCommit = new Commit(message, new Date(), currentCommitHash,
-                secondParentHash, newFileSnapshots);
-        String newCommitHash = sha1(serialize(newCommit));
-        writeObject(join(COMMITS_DIR, newCommitHash), newCommit);
+                secondParentHash, newTree, gitletDir);
+        String newCommitHash = ObjectStore.writeCommit(gitletDir, newCommit);
+
+        // append new commit to commit graph
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        graph.ensure(currentCommitHash);
+        if (secondParentHash != null) {
+            graph.ensure(secondParentHash);
+        }
+        int newIndex = graph.add(newCommitHash, currentCommitHash, secondParentHash);
+        graph.save();
+        // first fill in the filters of commits that came by other means
+        PathFilters filters = PathFilters.load(gitletDir);
+        if (filters.size() <= newIndex) {
+            filters.ensure(graph, newIndex - 1);
+            TreeSet<String> changed = new TreeSet<>();
+            Tree.changedPaths(gitletDir, currentTree, newTree, changed);
+            filters.add(changed);
+            filters.save();
+        }
+        CommitIndex commitIndex = CommitIndex.load(gitletDir);
+        commitIndex.add(newCommitHash);
+        commitIndex.save();
+        CommitLog commitLog = CommitLog.load(gitletDir);
+        commitLog.add(newCommitHash, newCommit);
+        commitLog.sync();
+        commitLog.save();
 
         // update current branch to point to new commit
-        writeContents(join(HEADS_DIR, currentBranch), newCommitHash);
+        writeContents(join(headsDir, currentBranch), newCommitHash);
+        return newCommitHash;
     }
 
-    private static void checkoutFileFromCommit(Commit commit, String filename) {
-        if (!commit.getFileSnapshots().containsKey(filename)) {
+    private void checkoutFileFromCommit(Commit commit, String filename) {
+        String blobHash = commit.getBlobHash(filename);
+        if (blobHash == null) {
             throw error("File does not exist in that commit.");
         } else {
-            String blobHash = commit.getFileSnapshots().get(filename);
-            String fileContent = readContentsAsString(join(OBJECTS_DIR, blobHash));
-            writeContents(join(CWD, filename), fileContent);
+            ObjectStore.checkoutBlob(gitletDir, blobHash, join(cwd, filename));
+            StatIndex index = loadIndex();
+            index.record(filename, blobHash);
+            index.save();
         }
     }
 
-    public static void checkoutHeadCommitFile(String filename) {
+    public void checkoutHeadCommitFile(String filename) {
         checkInit();
+        filename = normalizePath(filename);
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
         checkoutFileFromCommit(currentCommit, filename);
     }
 
-    private static String getFullCommitHash(String partialHash) {
-        String fullHash = partialHash;
-        for (String commitFileName : plainFilenamesIn(COMMITS_DIR)) {
-            if (commitFileName.startsWith(partialHash)) {
-                fullHash = commitFileName;
-                break;
-            }
+    private String getFullCommitHash(String partialHash) {
+        if (isUid(partialHash)) {
+            return partialHash;
         }
-        return fullHash;
+        String fullHash = CommitIndex.load(gitletDir).resolve(partialHash);
+        return fullHash == null ? partialHash : fullHash;
     }
 
-    public static void checkoutCommitFile(String commitHash, String filename) {
+    public void checkoutCommitFile(String commitHash, String filename) {
         checkInit();
+        filename = normalizePath(filename);
         commitHash = getFullCommitHash(commitHash);
-        File commitFile = join(COMMITS_DIR, commitHash);
-        if (!commitFile.exists()) {
+        if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, commitHash)) {
             throw error("No commit with that id exists.");
         }
-        Commit commit = readObject(commitFile, Commit.class);
+        Commit commit = readCommit(commitHash);
         checkoutFileFromCommit(commit, filename);
     }
 
-    private static boolean hasUntrackedAndOverrideFiles(Commit currentCommit, Commit branchCommit) {
-        for (String fileInCWD : plainFilenamesIn(CWD)) {
-            boolean isTrackedInCurrentCommit = currentCommit.getFileSnapshots()
-                    .containsKey(fileInCWD);
-            boolean isOverWrittenByBranch = branchCommit.getFileSnapshots().containsKey(fileInCWD);
-            if (!isTrackedInCurrentCommit && isOverWrittenByBranch) {
+    private boolean hasUntrackedAndOverrideFiles(Commit currentCommit, Commit branchCommit) {
+        // only files the branch adds can be untracked ones it would overwrite
+        Map<String, String> tracked = snapshotOf(currentCommit);
+        for (String fileInBranch : snapshotOf(branchCommit).keySet()) {
+            if (!tracked.containsKey(fileInBranch) && join(cwd, fileInBranch).isFile()) {
                 return true;
             }
         }
         return false;
     }
 
-    public static void checkoutBranch(String branch) {
+    private void materialize(StatIndex index, Map<String, String> files) {
+        // write the files concurrently, then record them from this thread
+        Materializer.materialize(gitletDir, cwd, files);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            index.record(file.getKey(), file.getValue());
+        }
+    }
+
+    public CheckoutResult checkoutBranch(String branch) {
         checkInit();
-        File branchFile = join(HEADS_DIR, branch);
+        File branchFile = join(headsDir, branch);
         if (!branchFile.exists()) {
             throw error("No such branch exists.");
         }
-        String currentBranch = readContentsAsString(HEAD_FILE);
+        String currentBranch = readContentsAsString(headFile);
         if (branch.equals(currentBranch)) {
             throw error("No need to checkout the current branch.");
         }
 
         // read current commit
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
 
         // read branch commit
         String branchCommitHash = readContentsAsString(branchFile);
-        Commit branchCommit = readObject(join(COMMITS_DIR, branchCommitHash), Commit.class);
+        Commit branchCommit = readCommit(branchCommitHash);
 
         if (hasUntrackedAndOverrideFiles(currentCommit, branchCommit)) {
             throw error("There is an untracked file in the way; delete it, "
                     + "or add and commit it first.");
         }
 
-        // remove files from working directory if file in current commit
-        for (String fileInCurrentCommit : currentCommit.getFileSnapshots().keySet()) {
-            join(CWD, fileInCurrentCommit).delete();
+        // only touch the files whose contents differ between the two commits
+        Map<String, String> currentFiles = snapshotOf(currentCommit);
+        Map<String, String> branchFiles = snapshotOf(branchCommit);
+        StatIndex index = loadIndex();
+        int deleted = 0;
+        int created = 0;
+        int overwritten = 0;
+        Map<String, String> writes = new HashMap<>();
+        for (String fileInCurrentCommit : currentFiles.keySet()) {
+            if (!branchFiles.containsKey(fileInCurrentCommit)) {
+                deleteWorkingFile(fileInCurrentCommit);
+                index.remove(fileInCurrentCommit);
+                deleted += 1;
+            }
         }
-
-        // write all files from branch commit to working directory
-        for (String fileInBranchCommit : branchCommit.getFileSnapshots().keySet()) {
-            String blobHash = branchCommit.getFileSnapshots().get(fileInBranchCommit);
-            String fileContent = readContentsAsString(join(OBJECTS_DIR, blobHash));
-            writeContents(join(CWD, fileInBranchCommit), fileContent);
+        for (Map.Entry<String, String> file : branchFiles.entrySet()) {
+            String fileInBranchCommit = file.getKey();
+            String blobHash = file.getValue();
+            String currentHash = currentFiles.get(fileInBranchCommit);
+            if (currentHash == null) {
+                created += 1;
+            } else if (!currentHash.equals(blobHash)
+                    || !blobHash.equals(index.hash(fileInBranchCommit))) {
+                // changed between the commits, or modified in the working directory
+                overwritten += 1;
+            } else {
+                continue;
+            }
+            writes.put(fileInBranchCommit, blobHash);
         }
+        materialize(index, writes);
+        index.save();
 
         // clear staging area
-        for (String stagedFile : plainFilenamesIn(STAGING_ADD_DIR)) {
-            join(STAGING_ADD_DIR, stagedFile).delete();
-        }
-        for (String stagedFile : plainFilenamesIn(STAGING_REMOVE_DIR)) {
-            join(STAGING_REMOVE_DIR, stagedFile).delete();
-        }
+        StagingArea stage = StagingArea.load(gitletDir);
+        stage.clear();
+        stage.save();
 
         // HEAD points to the checked out branch
-        writeContents(HEAD_FILE, branch);
+        writeContents(headFile, branch);
+        return new CheckoutResult(deleted, created, overwritten);
     }
 
-    private static void printCommitInfo(String commitHash, Commit commit) {
-        System.out.println("===");
-        System.out.println("commit " + commitHash);
-        if (commit.getSecondParent() != null) {
-            System.out.println("Merge: " + commit.getParent().substring(0, 7) + " "
-                    + commit.getSecondParent().substring(0, 7));
+    public List<LogEntry> log() {
+        checkInit();
+        // read current commit
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        // follow first parents through the commit graph, which commands
+        // that only read history extend in memory but never write
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        int k = graph.ensure(currentCommitHash);
+        List<LogEntry> entries = new ArrayList<>();
+        while (k != CommitGraph.NONE) {
+            Commit commit = readCommit(graph.hashAt(k));
+            entries.add(new LogEntry(graph.hashAt(k), commit.getParent(),
+                    commit.getSecondParent(), commit.getTimestamp(), commit.getMessage()));
+            k = graph.parent(k);
         }
-        System.out.println("Date: " + commit.getTimestamp());
-        System.out.println(commit.getMessage());
-        System.out.println();
+        return entries;
     }
 
-    public static void log() {
+    public List<LogEntry> log(String filename) {
         checkInit();
-        // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
-        while (currentCommit != null) {
-            printCommitInfo(currentCommitHash, currentCommit);
-            if (currentCommit.getParent() == null) {
-                break;
+        filename = normalizePath(filename);
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        int k = graph.ensure(currentCommitHash);
+        PathFilters filters = PathFilters.load(gitletDir);
+        filters.ensure(graph, k);
+        // follow first parents, reading only the commits whose filters
+        // say they may have changed the file
+        List<LogEntry> entries = new ArrayList<>();
+        int walked = 0;
+        int skipped = 0;
+        int falsePositives = 0;
+        for (; k != CommitGraph.NONE; k = graph.parent(k)) {
+            walked += 1;
+            if (!filters.mayHaveChanged(k, filename)) {
+                skipped += 1;
+                continue;
+            }
+            Commit commit = readCommit(graph.hashAt(k));
+            String parentBlobHash = graph.parent(k) == CommitGraph.NONE
+                    ? null : readCommit(graph.hashAt(graph.parent(k))).getBlobHash(filename);
+            if (Objects.equals(commit.getBlobHash(filename), parentBlobHash)) {
+                if (filters.isFiltered(k)) {
+                    falsePositives += 1;
+                }
+                continue;
             }
-            currentCommitHash = currentCommit.getParent();
-            currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+            entries.add(new LogEntry(graph.hashAt(k), commit.getParent(),
+                    commit.getSecondParent(), commit.getTimestamp(), commit.getMessage()));
         }
+        filterStats = new FilterStats(walked, skipped, walked - skipped, falsePositives);
+        return entries;
     }
 
-    public static void rm(String filename) {
+    public void rm(String filename) {
         checkInit();
-        File stagedForAdditionFile = join(STAGING_ADD_DIR, filename);
-        boolean isStagedForAddition = stagedForAdditionFile.exists();
+        filename = normalizePath(filename);
+        StagingArea stage = StagingArea.load(gitletDir);
+        boolean isStagedForAddition = stage.isStagedForAddition(filename);
 
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
-        boolean isTrackedInCurrentCommit = currentCommit.getFileSnapshots().containsKey(filename);
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
+        boolean isTrackedInCurrentCommit = currentCommit.getBlobHash(filename) != null;
 
         if (!isStagedForAddition && !isTrackedInCurrentCommit) {
             throw error("No reason to remove the file.");
         }
 
         if (isStagedForAddition) {
-            stagedForAdditionFile.delete();
+            stage.unstageAddition(filename);
         }
 
         if (isTrackedInCurrentCommit) {
             // stage file for removal
-            writeContents(join(STAGING_REMOVE_DIR, filename), "");
+            stage.stageRemoval(filename);
             // remove file from working directory
-            join(CWD, filename).delete();
+            deleteWorkingFile(filename);
         }
+        stage.save();
     }
 
-    public static void globalLog() {
+    public List<LogEntry> globalLog() {
         checkInit();
-        // Iterate through all commits in COMMITS_DIR
-        for (String commitHash : plainFilenamesIn(COMMITS_DIR)) {
-            Commit commit = readObject(join(COMMITS_DIR, commitHash), Commit.class);
-            printCommitInfo(commitHash, commit);
-        }
+        // read the metadata of every commit from the commit log, which
+        // commands that only read history never write
+        CommitLog commitLog = CommitLog.load(gitletDir);
+        commitLog.include();
+        List<LogEntry> entries = new ArrayList<>(commitLog.size());
+        commitLog.forEach(entry -> entries.add(new LogEntry(entry.hash, entry.parent,
+                entry.secondParent, entry.timestamp, entry.message)));
+        return entries;
     }
 
-    public static void find(String message) {
+    public List<String> find(String message) {
         checkInit();
-        boolean found = false;
-        for (String commitHash : plainFilenamesIn(COMMITS_DIR)) {
-            Commit commit = readObject(join(COMMITS_DIR, commitHash), Commit.class);
-            if (commit.getMessage().equals(message)) {
-                found = true;
-                System.out.println(commitHash);
-            }
-        }
-        if (!found) {
-            throw error("Found no commit with that message.");
-        }
+        // look the message up in the commit log's message index
+        CommitLog commitLog = CommitLog.load(gitletDir);
+        commitLog.include();
+        return commitLog.find(message);
     }
 
-    private static void statusExtra() {
+    public Status status() {
+        checkInit();
+        // branches, sorted
+        String currentBranch = readContentsAsString(headFile);
+        List<String> branches = plainFilenamesIn(headsDir);
+
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
 
-        // print modifications not staged for commit
-        System.out.println("=== Modifications Not Staged For Commit ===");
+        // modifications not staged for commit
         TreeMap<String, String> modifications = new TreeMap<>();
+        StatIndex index = loadIndex();
+        StagingArea stage = StagingArea.load(gitletDir);
         // check tracked files in current commit
-        for (String trackedFile : currentCommit.getFileSnapshots().keySet()) {
-            File fileInCWD = join(CWD, trackedFile);
+        Map<String, String> tracked = snapshotOf(currentCommit);
+        for (String trackedFile : tracked.keySet()) {
+            File fileInCWD = join(cwd, trackedFile);
             if (fileInCWD.exists()) {
-                boolean isStagedForAddition = join(STAGING_ADD_DIR, trackedFile).exists();
-                boolean unChanged = currentCommit.hasFile(trackedFile,
-                        sha1(readContentsAsString(fileInCWD)));
+                boolean isStagedForAddition = stage.isStagedForAddition(trackedFile);
+                boolean unChanged = index.hash(trackedFile).equals(tracked.get(trackedFile));
                 if (!isStagedForAddition && !unChanged) {
                     modifications.put(trackedFile, "modified");
                 }
             } else {
-                boolean isStagedForRemoval = join(STAGING_REMOVE_DIR, trackedFile).exists();
+                boolean isStagedForRemoval = stage.isStagedForRemoval(trackedFile);
                 if (!isStagedForRemoval) {
                     modifications.put(trackedFile, "deleted");
                 }
@@ -373,11 +626,11 @@ public class Repository {
         }
 
         // check files staged for addition
-        for (String stagedFile : plainFilenamesIn(STAGING_ADD_DIR)) {
-            File fileInCWD = join(CWD, stagedFile);
+        for (String stagedFile : stage.getAdditions().keySet()) {
+            File fileInCWD = join(cwd, stagedFile);
             if (fileInCWD.exists()) {
-                String fileInCWDHash = sha1(readContentsAsString(fileInCWD));
-                String stagedFileHash = readContentsAsString(join(STAGING_ADD_DIR, stagedFile));
+                String fileInCWDHash = index.hash(stagedFile);
+                String stagedFileHash = stage.getStagedHash(stagedFile);
                 if (!fileInCWDHash.equals(stagedFileHash)) {
                     modifications.put(stagedFile, "modified");
                 }
@@ -385,349 +638,918 @@ public class Repository {
                 modifications.put(stagedFile, "deleted");
             }
         }
-        for (String file : modifications.keySet()) {
-            System.out.println(file + " (" + modifications.get(file) + ")");
-        }
-        System.out.println();
+        index.save();
 
-        // print untracked files
-        System.out.println("=== Untracked Files ===");
-        for (String fileInCWD : plainFilenamesIn(CWD)) {
-            boolean isTrackedInCurrentCommit = currentCommit.getFileSnapshots().
-                    containsKey(fileInCWD);
-            boolean isStagedForAddition = join(STAGING_ADD_DIR, fileInCWD).exists();
+        // untracked files
+        List<String> untracked = new ArrayList<>();
+        for (String fileInCWD : workingFiles()) {
+            boolean isTrackedInCurrentCommit = tracked.containsKey(fileInCWD);
+            boolean isStagedForAddition = stage.isStagedForAddition(fileInCWD);
             if (!isTrackedInCurrentCommit && !isStagedForAddition) {
-                System.out.println(fileInCWD);
+                untracked.add(fileInCWD);
             }
         }
-        System.out.println();
+        return new Status(currentBranch, branches,
+                new ArrayList<>(stage.getAdditions().keySet()),
+                new ArrayList<>(stage.getRemovals()), modifications, untracked);
     }
 
-    public static void status() {
+    public List<FileDiff> diff(String fromCommitHash, String toCommitHash) {
         checkInit();
-        // print branches
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        System.out.println("=== Branches ===");
-        for (String branch : plainFilenamesIn(HEADS_DIR)) {
-            if (branch.equals(currentBranch)) {
-                System.out.println("*" + branch);
-            } else {
-                System.out.println(branch);
+        // with no commits, compare HEAD; with no second one, the working files
+        if (fromCommitHash == null) {
+            String currentBranch = readContentsAsString(headFile);
+            fromCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        }
+        Map<String, String> from = snapshotOf(readCommit(resolveCommit(fromCommitHash)));
+        Map<String, String> to;
+        StatIndex index = null;
+        if (toCommitHash != null) {
+            to = snapshotOf(readCommit(resolveCommit(toCommitHash)));
+        } else {
+            // the files the next commit would track, as they are now
+            String currentBranch = readContentsAsString(headFile);
+            Commit currentCommit = readCommit(
+                    readContentsAsString(join(headsDir, currentBranch)));
+            StagingArea stage = StagingArea.load(gitletDir);
+            TreeSet<String> tracked = new TreeSet<>(snapshotOf(currentCommit).keySet());
+            tracked.addAll(stage.getAdditions().keySet());
+            tracked.removeAll(stage.getRemovals());
+            index = loadIndex();
+            to = new HashMap<>();
+            for (String trackedFile : tracked) {
+                String hash = index.hash(trackedFile);
+                if (hash != null) {
+                    to.put(trackedFile, hash);
+                }
             }
+            index.save();
         }
-        System.out.println();
 
-        // print staged files for addition
-        System.out.println("=== Staged Files ===");
-        for (String stagedFile : plainFilenamesIn(STAGING_ADD_DIR)) {
-            System.out.println(stagedFile);
+        TreeSet<String> paths = new TreeSet<>(from.keySet());
+        paths.addAll(to.keySet());
+        List<FileDiff> diffs = new ArrayList<>();
+        for (String path : paths) {
+            String oldHash = from.get(path);
+            String newHash = to.get(path);
+            if (Objects.equals(oldHash, newHash)) {
+                continue;
+            }
+            byte[] oldContents = oldHash == null
+                    ? new byte[0] : ObjectStore.readBlob(gitletDir, oldHash);
+            byte[] newContents;
+            if (newHash == null) {
+                newContents = new byte[0];
+            } else if (index != null) {
+                newContents = readContents(join(cwd, path));
+            } else {
+                newContents = ObjectStore.readBlob(gitletDir, newHash);
+            }
+            if (Diff.isBinary(oldContents) || Diff.isBinary(newContents)) {
+                diffs.add(new FileDiff(path, oldHash, newHash, null));
+                continue;
+            }
+            List<String> oldLines = Diff.lines(oldContents);
+            List<String> newLines = Diff.lines(newContents);
+            diffs.add(new FileDiff(path, oldHash, newHash,
+                    Diff.unified(oldLines, newLines, Diff.diff(oldLines, newLines))));
         }
-        System.out.println();
+        return diffs;
+    }
 
-        // print staged files for removal
-        System.out.println("=== Removed Files ===");
-        for (String stagedFile : plainFilenamesIn(STAGING_REMOVE_DIR)) {
-            System.out.println(stagedFile);
+    private String resolveCommit(String commitHash) {
+        commitHash = getFullCommitHash(commitHash);
+        if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, commitHash)) {
+            throw error("No commit with that id exists.");
         }
-        System.out.println();
-
-        statusExtra();
+        return commitHash;
     }
 
-    public static void branch(String branchName) {
+    public void branch(String branchName) {
         checkInit();
-        File branchFile = join(HEADS_DIR, branchName);
+        File branchFile = join(headsDir, branchName);
         if (branchFile.exists()) {
             throw error("A branch with that name already exists.");
         }
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
         // create new branch pointing to current commit
         writeContents(branchFile, currentCommitHash);
     }
 
-    public static void rmBranch(String branchName) {
+    public void rmBranch(String branchName) {
         checkInit();
-        File branchFile = join(HEADS_DIR, branchName);
+        File branchFile = join(headsDir, branchName);
         if (!branchFile.exists()) {
             throw error("A branch with that name does not exist.");
         }
-        String currentBranch = readContentsAsString(HEAD_FILE);
+        String currentBranch = readContentsAsString(headFile);
         if (branchName.equals(currentBranch)) {
             throw error("Cannot remove the current branch.");
         }
         branchFile.delete();
     }
 
-    public static void reset(String commitHash) {
+    public void reset(String commitHash) {
         checkInit();
         commitHash = getFullCommitHash(commitHash);
-        File commitFile = join(COMMITS_DIR, commitHash);
-        if (!commitFile.exists()) {
+        if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, commitHash)) {
             throw error("No commit with that id exists.");
         }
-        String originalBranch = readContentsAsString(HEAD_FILE);
+        String originalBranch = readContentsAsString(headFile);
         // checkout commit
-        File branchFile = join(HEADS_DIR, commitHash);
+        File branchFile = join(headsDir, commitHash);
         writeContents(branchFile, commitHash);
         checkoutBranch(commitHash);
         branchFile.delete();
         // update current branch to point to commit
-        writeContents(join(HEADS_DIR, originalBranch), commitHash);
-        writeContents(HEAD_FILE, originalBranch);
-    }
-
-    private static HashSet<String> getAllAncestors(String commitHash, File gitletDir) {
-        HashSet<String> ancestors = new HashSet<>();
-        ArrayDeque<String> queue = new ArrayDeque<>();
-        queue.offer(commitHash);
-        while (!queue.isEmpty()) {
-            String currentHash = queue.poll();
-            ancestors.add(currentHash);
-            updateQueue(queue, currentHash, gitletDir);
-        }
-        return ancestors;
-    }
-
-    private static String findSplitPoint(String currentCommitHash, String branchCommitHash) {
-        HashSet<String> branchCommitAncestors = getAllAncestors(branchCommitHash, GITLET_DIR);
-        ArrayDeque<String> queue = new ArrayDeque<>();
-        queue.offer(currentCommitHash);
-        while (!queue.isEmpty()) {
-            String commitHash = queue.poll();
-            if (branchCommitAncestors.contains(commitHash)) {
-                return commitHash;
+        writeContents(join(headsDir, originalBranch), commitHash);
+        writeContents(headFile, originalBranch);
+    }
+
+    private static String findSplitPoint(CommitGraph graph, String currentCommitHash,
+                                         String branchCommitHash) {
+        int splitPoint = graph.mergeBase(graph.ensure(currentCommitHash),
+                graph.ensure(branchCommitHash));
+        return splitPoint == CommitGraph.NONE ? null : graph.hashAt(splitPoint);
+    }
+
+    private boolean handleConflict(StagingArea stage, String splitBlobHash,
+                                   String currentBlobHash, String branchBlobHash,
+                                   String fileInSplitPoint) {
+        // merge text files changed on both sides line by line
+        if (splitBlobHash != null && currentBlobHash != null && branchBlobHash != null) {
+            byte[] base = readMergeable(splitBlobHash);
+            byte[] ours = base == null ? null : readMergeable(currentBlobHash);
+            byte[] theirs = ours == null ? null : readMergeable(branchBlobHash);
+            if (theirs != null) {
+                LineMerge merged = LineMerge.merge(base, ours, theirs);
+                File mergedFile = join(cwd, fileInSplitPoint);
+                mergedFile.getParentFile().mkdirs();
+                writeContents(mergedFile, merged.contents());
+                String mergedBlobHash = ObjectStore.writeBlob(gitletDir, merged.contents(),
+                        currentBlobHash);
+                stage.stageAddition(fileInSplitPoint, mergedBlobHash);
+                return merged.conflicts() > 0;
             }
-            updateQueue(queue, commitHash, GITLET_DIR);
         }
-        return null;
+        // otherwise write the conflict file byte for byte, streaming both versions in
+        File conflictFile = join(cwd, fileInSplitPoint);
+        conflictFile.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(conflictFile.toPath()))) {
+            out.write(LineMerge.OURS.getBytes(StandardCharsets.UTF_8));
+            copyBlob(currentBlobHash, out);
+            out.write(LineMerge.SEPARATOR.getBytes(StandardCharsets.UTF_8));
+            copyBlob(branchBlobHash, out);
+            out.write(LineMerge.THEIRS.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String mergedBlobHash = ObjectStore.writeBlob(gitletDir, conflictFile,
+                currentBlobHash);
+        // stage merged file for addition
+        stage.stageAddition(fileInSplitPoint, mergedBlobHash);
+        return true;
     }
 
-    private static void updateQueue(ArrayDeque<String> queue, String commitHash, File gitletDir) {
-        Commit commit = readObject(join(gitletDir, "commits", commitHash), Commit.class);
-        String parentHash = commit.getParent();
-        String secondParentHash = commit.getSecondParent();
-        if (parentHash != null) {
-            queue.offer(parentHash);
+    private byte[] readMergeable(String blobHash) {
+        // the blob's contents, or null if it is too large or binary to merge by line
+        byte[] contents;
+        try (InputStream in = ObjectStore.open(gitletDir, ObjectStore.BLOB, blobHash)) {
+            contents = in.readNBytes(LineMerge.MAX_SIZE + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        if (secondParentHash != null) {
-            queue.offer(secondParentHash);
+        if (contents.length > LineMerge.MAX_SIZE || Diff.isBinary(contents)) {
+            return null;
         }
+        return contents;
     }
 
-    private static void handleConflict(String currentBlobHash, String branchBlobHash,
-                                       String fileInSplitPoint) {
-        String currentContent = currentBlobHash == null ? ""
-                : readContentsAsString(join(OBJECTS_DIR, currentBlobHash));
-        String branchContent = branchBlobHash == null ? ""
-                : readContentsAsString(join(OBJECTS_DIR, branchBlobHash));
-        String mergedContent = "<<<<<<< HEAD\n" + currentContent + "=======\n"
-                + branchContent + ">>>>>>>\n";
-        writeContents(join(CWD, fileInSplitPoint), mergedContent);
-        String mergedBlobHash = sha1(mergedContent);
-        writeContents(join(OBJECTS_DIR, mergedBlobHash), mergedContent);
-        // stage merged file for addition
-        writeContents(join(STAGING_ADD_DIR, fileInSplitPoint), mergedBlobHash);
+    private void copyBlob(String blobHash, OutputStream out) throws IOException {
+        if (blobHash != null) {
+            try (InputStream in = ObjectStore.open(gitletDir, ObjectStore.BLOB, blobHash)) {
+                in.transferTo(out);
+            }
+        }
     }
 
-    private static boolean handleMerge(String currentCommitHash, String branchCommitHash,
-                                       String splitPointCommitHash) {
+    private boolean handleMerge(String currentCommitHash, String branchCommitHash,
+                                String splitPointCommitHash) {
+        // plan every file from the three snapshots before touching any
+        Commit currentCommit = readCommit(currentCommitHash);
+        Commit branchCommit = readCommit(branchCommitHash);
+        Commit splitPointCommit = readCommit(splitPointCommitHash);
+        MergePlan plan = MergePlan.plan(snapshotOf(splitPointCommit),
+                snapshotOf(currentCommit), snapshotOf(branchCommit));
+
+        // then apply it in one pass, saving the stage and index once
         boolean isConflict = false;
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
-        Commit branchCommit = readObject(join(COMMITS_DIR, branchCommitHash), Commit.class);
-        Commit splitPointCommit = readObject(join(COMMITS_DIR, splitPointCommitHash), Commit.class);
-        // for each file in split point commit
-        for (String fileInSplitPoint : splitPointCommit.getFileSnapshots().keySet()) {
-            String splitPointBlobHash = splitPointCommit.getFileSnapshots().get(fileInSplitPoint);
-            String currentBlobHash = currentCommit.getFileSnapshots().get(fileInSplitPoint);
-            String branchBlobHash = branchCommit.getFileSnapshots().get(fileInSplitPoint);
-            boolean unChangedInCurrent = currentBlobHash != null
-                    && currentBlobHash.equals(splitPointBlobHash);
-            boolean changedInCurrent = currentBlobHash != null
-                    && !currentBlobHash.equals(splitPointBlobHash);
-            boolean changedInBranch = branchBlobHash != null
-                    && !branchBlobHash.equals(splitPointBlobHash);
-            if (unChangedInCurrent && changedInBranch) {
-                // checkout file from branch commit
-                checkoutCommitFile(branchCommitHash, fileInSplitPoint);
-                // stage file for addition
-                writeContents(join(STAGING_ADD_DIR, fileInSplitPoint), branchBlobHash);
-            }
-            if (unChangedInCurrent && branchBlobHash == null) {
-                rm(fileInSplitPoint);
-            }
-            if (changedInCurrent && branchBlobHash == null
-                    || changedInBranch && currentBlobHash == null
-                    || (changedInBranch && changedInCurrent
-                    && !branchBlobHash.equals(currentBlobHash))) {
-                handleConflict(currentBlobHash, branchBlobHash, fileInSplitPoint);
-                isConflict = true;
-            }
-        }
-        // for each file in branch commit
-        for (String fileInBranch : branchCommit.getFileSnapshots().keySet()) {
-            String splitPointBlobHash = splitPointCommit.getFileSnapshots().get(fileInBranch);
-            String currentBlobHash = currentCommit.getFileSnapshots().get(fileInBranch);
-            String branchBlobHash = branchCommit.getFileSnapshots().get(fileInBranch);
-            // file only in branch commit
-            if (splitPointBlobHash == null && currentBlobHash == null) {
-                // checkout file from branch commit
-                checkoutCommitFile(branchCommitHash, fileInBranch);
-                // stage file for addition
-                writeContents(join(STAGING_ADD_DIR, fileInBranch), branchBlobHash);
-            }
-            // file in branch diff in current and file not in split point
-            boolean diffInCurrentAndBranch = currentBlobHash != null
-                    && !currentBlobHash.equals(branchBlobHash);
-            if (diffInCurrentAndBranch && splitPointBlobHash == null) {
-                handleConflict(currentBlobHash, branchBlobHash, fileInBranch);
-                isConflict = true;
+        StagingArea stage = StagingArea.load(gitletDir);
+        Map<String, String> checkouts = new HashMap<>();
+        for (Map.Entry<String, MergePlan.Step> file : plan.steps().entrySet()) {
+            String path = file.getKey();
+            MergePlan.Step step = file.getValue();
+            switch (step.action) {
+                case TAKE:
+                    checkouts.put(path, step.branch);
+                    stage.stageAddition(path, step.branch);
+                    break;
+                case REMOVE:
+                    stage.stageRemoval(path);
+                    deleteWorkingFile(path);
+                    break;
+                default:
+                    isConflict |= handleConflict(stage, step.split, step.current,
+                            step.branch, path);
+                    break;
             }
         }
+        StatIndex index = loadIndex();
+        materialize(index, checkouts);
+        index.save();
+        stage.save();
         return isConflict;
     }
 
-    public static void merge(String branchName) {
+    public MergeResult merge(String branchName) {
         checkInit();
         // if stageing area is not empty, throw error
         if (!isStagingEmpty()) {
             throw error("You have uncommitted changes.");
         }
         // read branch commit
-        File branchFile = join(HEADS_DIR, branchName);
+        File branchFile = join(headsDir, branchName);
         // if branch does not exist, throw error
         if (!branchFile.exists()) {
             throw error("A branch with that name does not exist.");
         }
         String branchCommitHash = readContentsAsString(branchFile);
-        Commit branchCommit = readObject(join(COMMITS_DIR, branchCommitHash), Commit.class);
+        Commit branchCommit = readCommit(branchCommitHash);
 
         // read current commit
-        String currentBranch = readContentsAsString(HEAD_FILE);
+        String currentBranch = readContentsAsString(headFile);
         // if branch is current branch, throw error
         if (branchName.equals(currentBranch)) {
             throw error("Cannot merge a branch with itself.");
         }
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        Commit currentCommit = readObject(join(COMMITS_DIR, currentCommitHash), Commit.class);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        Commit currentCommit = readCommit(currentCommitHash);
 
         if (hasUntrackedAndOverrideFiles(currentCommit, branchCommit)) {
             throw error("There is an untracked file in the way; delete it, "
                     + "or add and commit it first.");
         }
 
-        // read split point commit
-        String splitPointHash = findSplitPoint(currentCommitHash, branchCommitHash);
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        int currentIndex = graph.ensure(currentCommitHash);
+        int branchIndex = graph.ensure(branchCommitHash);
+        graph.save();
 
-        // if split point is the same as branch commit, do nothing
-        if (splitPointHash.equals(branchCommitHash)) {
+        // if branch commit is an ancestor of current commit, do nothing
+        if (graph.isAncestor(branchIndex, currentIndex)) {
             throw error("Given branch is an ancestor of the current branch.");
         }
 
-        // if split point is the same as current commit, checkout branch and update HEAD
-        if (splitPointHash.equals(currentCommitHash)) {
+        // if current commit is an ancestor of branch commit, checkout branch and update HEAD
+        if (graph.isAncestor(currentIndex, branchIndex)) {
             checkoutBranch(branchName);
-            throw error("Current branch fast-forwarded.");
+            return MergeResult.FAST_FORWARDED;
+        }
+
+        // read split point commit
+        String splitPointHash = findSplitPoint(graph, currentCommitHash, branchCommitHash);
+        if (splitPointHash == null) {
+            // only a shallow history can lack the initial commit they share
+            throw error("Split point is beyond the shallow history; fetch with a greater depth.");
         }
 
         boolean isConflict = handleMerge(currentCommitHash, branchCommitHash, splitPointHash);
         commit("Merged " + branchName + " into " + currentBranch + ".", branchCommitHash);
-        if (isConflict) {
-            throw error("Encountered a merge conflict.");
-        }
+        return isConflict ? MergeResult.CONFLICTED : MergeResult.MERGED;
+    }
+
+    public int pack(boolean all) {
+        checkInit();
+        // packing deletes the loose objects and packs it replaces, which
+        // other commands may be reading
+        return RepoLock.withExclusive(gitletDir, () -> {
+            int packed = ObjectStore.pack(gitletDir, all);
+            if (all) {
+                ReachabilityBitmaps.write(gitletDir, ReachabilityBitmaps.refTips(gitletDir));
+            }
+            return packed;
+        });
+    }
+
+    public GcResult gc(long graceSeconds) {
+        checkInit();
+        return RepoLock.withExclusive(gitletDir, () -> {
+            GarbageCollector.Result result =
+                    GarbageCollector.collect(gitletDir, graceSeconds * 1000);
+            return new GcResult(result.reachable, result.removed, result.kept,
+                    Math.max(0, result.bytesBefore - result.bytesAfter));
+        });
+    }
+
+    public BlobStats stats() {
+        checkInit();
+        ObjectStore.BlobStats stats = ObjectStore.blobStats(gitletDir);
+        return new BlobStats(stats.wholeBlobs, stats.deltaBlobs, stats.logicalBytes,
+                stats.storedBytes, stats.deltaLogicalBytes - stats.deltaStoredBytes);
+    }
+
+    public CacheStats getCacheStats() {
+        ObjectCache<byte[]> blobs = ObjectStore.BLOB_CACHE;
+        return new CacheStats(commitCache.hits(), commitCache.misses(),
+                commitCache.evictions(), commitCache.size(),
+                snapshotCache.hits(), snapshotCache.misses(),
+                snapshotCache.evictions(), snapshotCache.size(),
+                blobs.hits(), blobs.misses(), blobs.evictions(), blobs.size());
     }
 
-    public static void addRemote(String remoteName, String remotePath) {
+    public FilterStats getFilterStats() {
+        return filterStats;
+    }
+
+    public void daemon(long idleSeconds) {
+        checkInit();
+        Daemon.serve(this, idleSeconds);
+    }
+
+    public void addRemote(String remoteName, String remotePath) {
         checkInit();
-        File remoteFile = join(REMOTES_REPO_DIR, remoteName);
+        File remoteFile = join(remotesRepoDir, remoteName);
         if (remoteFile.exists()) {
             throw error("A remote with that name already exists.");
         }
         writeContents(remoteFile, remotePath);
-        join(HEADS_DIR, remoteName).mkdir();
+        join(headsDir, remoteName).mkdir();
     }
 
-    public static void rmRemote(String remoteName) {
+    public void rmRemote(String remoteName) {
         checkInit();
-        File remoteFile = join(REMOTES_REPO_DIR, remoteName);
+        File remoteFile = join(remotesRepoDir, remoteName);
         if (!remoteFile.exists()) {
             throw error("A remote with that name does not exist.");
         }
         remoteFile.delete();
-        File remoteHeadsDir = join(HEADS_DIR, remoteName);
+        File remoteHeadsDir = join(headsDir, remoteName);
         for (String remoteBranch : plainFilenamesIn(remoteHeadsDir)) {
             join(remoteHeadsDir, remoteBranch).delete();
         }
         remoteHeadsDir.delete();
     }
 
-    private static void copyAllCommits(HashSet<String> commitHashes, File from, File to) {
-        // copy commits
-        for (String commitHash : commitHashes) {
-            File fromCommitFile = join(from, "commits", commitHash);
-            File toCommitFile = join(to, "commits", commitHash);
-            Commit commit = readObject(fromCommitFile, Commit.class);
-            writeObject(toCommitFile, commit);
-            // copy blobs
-            for (String blobHash : commit.getFileSnapshots().values()) {
-                File fromBlobFile = join(from, "objects", blobHash);
-                File toBlobFile = join(to, "objects", blobHash);
-                String blobContent = readContentsAsString(fromBlobFile);
-                writeContents(toBlobFile, blobContent);
-            }
-        }
+    /**
+     * Serves this repository to gitlet:// remotes on PORT of the local
+     * address ADDRESS, or of the loopback interface if ADDRESS is null.
+     * The server does not authenticate its clients, who may push to any
+     * branch.
+     */
+    public void serve(String address, int port) {
+        checkInit();
+        RemoteServer.serve(gitletDir, address, port);
     }
 
-    private static File getRemoteDir(String remoteName) {
-        File remoteRepo = join(REMOTES_REPO_DIR, remoteName);
-        if (!remoteRepo.exists()) {
+    private String getRemoteAddress(String remoteName) {
+        File remoteFile = join(remotesRepoDir, remoteName);
+        if (!remoteFile.exists()) {
             throw error("A remote with that name does not exist.");
         }
-        remoteRepo = join(readContentsAsString(remoteRepo));
+        return readContentsAsString(remoteFile);
+    }
+
+    private File getRemoteDir(String remoteAddress) {
+        // relative remote paths are relative to the working directory
+        File remoteRepo = cwd.toPath().resolve(remoteAddress).toFile();
         if (!remoteRepo.exists()) {
             throw error("Remote directory not found.");
         }
         return remoteRepo;
     }
 
-    public static void push(String remoteName, String remoteBranchName) {
+    public TransferResult push(String remoteName, String remoteBranchName) {
         checkInit();
-        File remoteRepo = getRemoteDir(remoteName);
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        String currentCommitHash = readContentsAsString(join(HEADS_DIR, currentBranch));
-        HashSet<String> allAncestors = getAllAncestors(currentCommitHash, GITLET_DIR);
-        File remoteBranchFile = join(remoteRepo, "refs", "heads", remoteBranchName);
-        if (remoteBranchFile.exists()) {
-            String remoteCommitHash = readContentsAsString(remoteBranchFile);
-            if (!allAncestors.contains(remoteCommitHash)) {
-                throw error("Please pull down remote changes before pushing.");
+        String remoteAddress = getRemoteAddress(remoteName);
+        String currentBranch = readContentsAsString(headFile);
+        String currentCommitHash = readContentsAsString(join(headsDir, currentBranch));
+        if (RemoteClient.isUrl(remoteAddress)) {
+            try (RemoteClient remote = RemoteClient.connect(remoteAddress)) {
+                Map<String, String> remoteBranches = remote.refs();
+                String remoteCommitHash = remoteBranches.get(remoteBranchName);
+                if (remoteCommitHash != null) {
+                    checkFastForward(remoteCommitHash, currentCommitHash);
+                }
+                // send the commits the server is missing, given its branches
+                Transfer transfer = remote.push(gitletDir, remoteBranchName, remoteCommitHash,
+                        currentCommitHash, remoteBranches.values(), remote.getBoundary());
+                return new TransferResult(transfer.getObjects(), transfer.getBytes());
             }
         }
-        // copy all commits from local to remote
-        copyAllCommits(allAncestors, GITLET_DIR, remoteRepo);
-        // update remote branch to point to head of current branch
-        writeContents(remoteBranchFile, currentCommitHash);
+        File remoteRepo = getRemoteDir(remoteAddress);
+        return RepoLock.withShared(remoteRepo, () -> {
+            File remoteBranchFile = join(remoteRepo, "refs", "heads", remoteBranchName);
+            if (remoteBranchFile.exists()) {
+                checkFastForward(readContentsAsString(remoteBranchFile), currentCommitHash);
+            }
+            // copy the commits the remote is missing
+            Transfer transfer = Transfer.push(gitletDir, remoteRepo, currentCommitHash);
+            ShallowBoundary.update(remoteRepo, transfer.getCommits());
+            // update remote branch to point to head of current branch
+            writeContents(remoteBranchFile, currentCommitHash);
+            return new TransferResult(transfer.getObjects(), transfer.getBytes());
+        });
     }
 
-    public static void fetch(String remoteName, String remoteBranchName) {
+    // the remote head must be in the history being pushed
+    private void checkFastForward(String remoteCommitHash, String currentCommitHash) {
+        if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, remoteCommitHash)) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        boolean isAncestor = graph.isAncestor(graph.ensure(remoteCommitHash),
+                graph.ensure(currentCommitHash));
+        graph.save();
+        if (!isAncestor) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+    }
+
+    public TransferResult fetch(String remoteName, String remoteBranchName) {
+        return fetch(remoteName, remoteBranchName, 0);
+    }
+
+    /**
+     * Fetches the last DEPTH generations of the history of remote branch
+     * REMOTEBRANCHNAME, or all of it if DEPTH is 0.  Commits fetched
+     * without their parents join the shallow boundary; see ShallowBoundary.
+     */
+    public TransferResult fetch(String remoteName, String remoteBranchName, int depth) {
         checkInit();
-        File remoteRepo = getRemoteDir(remoteName);
-        File remoteBranchFile = join(remoteRepo, "refs", "heads", remoteBranchName);
-        if (!remoteBranchFile.exists()) {
-            throw error("That remote does not have that branch.");
+        String remoteAddress = getRemoteAddress(remoteName);
+        if (RemoteClient.isUrl(remoteAddress)) {
+            // tell the server which commits are here, so it sends only the rest
+            RemoteProtocol.ObjectReader reader = new RemoteProtocol.ObjectReader(gitletDir);
+            String remoteCommitHash;
+            try (RemoteClient remote = RemoteClient.connect(remoteAddress)) {
+                remoteCommitHash = remote.fetch(remoteBranchName, depth,
+                        ReachabilityBitmaps.refTips(gitletDir), ShallowBoundary.load(gitletDir),
+                        reader);
+            }
+            if (!ObjectStore.contains(gitletDir, ObjectStore.COMMIT, remoteCommitHash)) {
+                throw error("Lost connection to remote server.");
+            }
+            ShallowBoundary.update(gitletDir, reader.getCommits());
+            addFetched(remoteCommitHash);
+            writeContents(join(headsDir, remoteName, remoteBranchName), remoteCommitHash);
+            return new TransferResult(reader.getObjects(), reader.getBytes());
         }
-        // copy all commits from remote branch to local
-        String remoteCommitHash = readContentsAsString(remoteBranchFile);
-        copyAllCommits(getAllAncestors(remoteCommitHash, remoteRepo), remoteRepo, GITLET_DIR);
+        File remoteRepo = getRemoteDir(remoteAddress);
+        return RepoLock.withShared(remoteRepo, () -> {
+            File remoteBranchFile = join(remoteRepo, "refs", "heads", remoteBranchName);
+            if (!remoteBranchFile.exists()) {
+                throw error("That remote does not have that branch.");
+            }
+            // copy the commits of the remote branch this repository is missing
+            String remoteCommitHash = readContentsAsString(remoteBranchFile);
+            Transfer transfer = Transfer.fetch(remoteRepo, gitletDir, remoteCommitHash, depth);
+            ShallowBoundary.update(gitletDir, transfer.getCommits());
+            addFetched(remoteCommitHash);
+
+            // create a new branch point to head of fetched remote branch
+            writeContents(join(headsDir, remoteName, remoteBranchName), remoteCommitHash);
+            return new TransferResult(transfer.getObjects(), transfer.getBytes());
+        });
+    }
 
-        // create a new branch point to head of fetched remote branch
-        writeContents(join(HEADS_DIR, remoteName, remoteBranchName), remoteCommitHash);
+    // record fetched history in the commit graph and the commit log, so
+    // that later commands reading it need not walk the fetched commits again
+    private void addFetched(String commitHash) {
+        CommitGraph graph = CommitGraph.load(gitletDir);
+        graph.ensure(commitHash);
+        graph.save();
+        CommitLog commitLog = CommitLog.load(gitletDir);
+        commitLog.sync();
+        commitLog.save();
     }
 
-    public static void pull(String remoteName, String remoteBranchName) {
+    public MergeResult pull(String remoteName, String remoteBranchName) {
         checkInit();
         fetch(remoteName, remoteBranchName);
-        merge(remoteName + File.separator + remoteBranchName);
+        return merge(remoteName + File.separator + remoteBranchName);
+    }
+
+    /**
+     * One commit as listed by log and global-log.
+     */
+    public static final class LogEntry {
+        private final String hash;
+        private final String parent;
+        private final String secondParent;
+        private final String timestamp;
+        private final String message;
+
+        LogEntry(String hash, String parent, String secondParent,
+                 String timestamp, String message) {
+            this.hash = hash;
+            this.parent = parent;
+            this.secondParent = secondParent;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getParent() {
+            return parent;
+        }
+
+        /** Returns the second parent of a merge commit, or null. */
+        public String getSecondParent() {
+            return secondParent;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * The state of the branches, staging area and working directory, as
+     * reported by status.  All lists are sorted.
+     */
+    public static final class Status {
+        private final String currentBranch;
+        private final List<String> branches;
+        private final List<String> staged;
+        private final List<String> removed;
+        private final SortedMap<String, String> modifications;
+        private final List<String> untracked;
+
+        Status(String currentBranch, List<String> branches, List<String> staged,
+               List<String> removed, SortedMap<String, String> modifications,
+               List<String> untracked) {
+            this.currentBranch = currentBranch;
+            this.branches = Collections.unmodifiableList(branches);
+            this.staged = Collections.unmodifiableList(staged);
+            this.removed = Collections.unmodifiableList(removed);
+            this.modifications = Collections.unmodifiableSortedMap(modifications);
+            this.untracked = Collections.unmodifiableList(untracked);
+        }
+
+        public String getCurrentBranch() {
+            return currentBranch;
+        }
+
+        /** Returns the names of the local branches. */
+        public List<String> getBranches() {
+            return branches;
+        }
+
+        /** Returns the files staged for addition. */
+        public List<String> getStaged() {
+            return staged;
+        }
+
+        /** Returns the files staged for removal. */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /** Returns the files modified but not staged for commit, each
+         *  mapped to "modified" or "deleted". */
+        public SortedMap<String, String> getModifications() {
+            return modifications;
+        }
+
+        /** Returns the files neither tracked nor staged. */
+        public List<String> getUntracked() {
+            return untracked;
+        }
+    }
+
+    /**
+     * The numbers of working files checkoutBranch deleted, created and
+     * overwrote.
+     */
+    public static final class CheckoutResult {
+        private final int deleted;
+        private final int created;
+        private final int overwritten;
+
+        CheckoutResult(int deleted, int created, int overwritten) {
+            this.deleted = deleted;
+            this.created = created;
+            this.overwritten = overwritten;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getCreated() {
+            return created;
+        }
+
+        public int getOverwritten() {
+            return overwritten;
+        }
+    }
+
+    /**
+     * The differences in one file between two versions.
+     */
+    public static final class FileDiff {
+        private final String path;
+        private final String oldHash;
+        private final String newHash;
+        private final List<String> lines;
+
+        FileDiff(String path, String oldHash, String newHash, List<String> lines) {
+            this.path = path;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+            this.lines = lines == null ? null : Collections.unmodifiableList(lines);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /** Returns the blob hash of the old version, or null if the file
+         *  was added. */
+        public String getOldHash() {
+            return oldHash;
+        }
+
+        /** Returns the blob hash of the new version, or null if the file
+         *  was removed. */
+        public String getNewHash() {
+            return newHash;
+        }
+
+        /** Returns true iff either version is binary, in which case there
+         *  are no lines. */
+        public boolean isBinary() {
+            return lines == null;
+        }
+
+        /** Returns the hunks of the unified diff, one line of output per
+         *  element, without newlines. */
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+
+    /**
+     * How a merge ended.
+     */
+    public enum MergeResult {
+        /** A merge commit was made. */
+        MERGED,
+        /** A merge commit was made, with conflicts left in the working files. */
+        CONFLICTED,
+        /** The current branch was moved to the given one; no commit was made. */
+        FAST_FORWARDED
+    }
+
+    /**
+     * How much push or fetch copied to the receiving repository.
+     */
+    public static final class TransferResult {
+        private final int objects;
+        private final long bytes;
+
+        TransferResult(int objects, long bytes) {
+            this.objects = objects;
+            this.bytes = bytes;
+        }
+
+        /** Returns the number of objects copied. */
+        public int getObjects() {
+            return objects;
+        }
+
+        /** Returns the number of bytes of object contents copied. */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * What gc found and removed.
+     */
+    public static final class GcResult {
+        private final int reachable;
+        private final int removed;
+        private final int kept;
+        private final long reclaimedBytes;
+
+        GcResult(int reachable, int removed, int kept, long reclaimedBytes) {
+            this.reachable = reachable;
+            this.removed = removed;
+            this.kept = kept;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        /** Returns the number of reachable objects. */
+        public int getReachable() {
+            return reachable;
+        }
+
+        /** Returns the number of unreachable objects removed. */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /** Returns the number of unreachable objects kept because they
+         *  were written within the grace period. */
+        public int getKept() {
+            return kept;
+        }
+
+        /** Returns the number of bytes of object storage freed. */
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+    }
+
+    /**
+     * Statistics on how the blobs of a repository are stored.
+     */
+    public static final class BlobStats {
+        private final int wholeBlobs;
+        private final int deltaBlobs;
+        private final long contentBytes;
+        private final long storedBytes;
+        private final long savedBytes;
+
+        BlobStats(int wholeBlobs, int deltaBlobs, long contentBytes,
+                  long storedBytes, long savedBytes) {
+            this.wholeBlobs = wholeBlobs;
+            this.deltaBlobs = deltaBlobs;
+            this.contentBytes = contentBytes;
+            this.storedBytes = storedBytes;
+            this.savedBytes = savedBytes;
+        }
+
+        /** Returns the number of blobs stored whole. */
+        public int getWholeBlobs() {
+            return wholeBlobs;
+        }
+
+        /** Returns the number of blobs stored as deltas. */
+        public int getDeltaBlobs() {
+            return deltaBlobs;
+        }
+
+        /** Returns the total size of the contents of all blobs. */
+        public long getContentBytes() {
+            return contentBytes;
+        }
+
+        /** Returns the total size of all blobs as stored. */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /** Returns the number of bytes saved by storing blobs as deltas. */
+        public long getSavedBytes() {
+            return savedBytes;
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counts of the caches of parsed commits and
+     * of their flattened snapshots (of this repository) and of small blobs
+     * (shared by all repositories in this process), with the bytes each
+     * currently holds, estimated for snapshots.
+     */
+    public static final class CacheStats {
+        private final long commitHits;
+        private final long commitMisses;
+        private final long commitEvictions;
+        private final long commitBytes;
+        private final long snapshotHits;
+        private final long snapshotMisses;
+        private final long snapshotEvictions;
+        private final long snapshotBytes;
+        private final long blobHits;
+        private final long blobMisses;
+        private final long blobEvictions;
+        private final long blobBytes;
+
+        CacheStats(long commitHits, long commitMisses, long commitEvictions, long commitBytes,
+                   long snapshotHits, long snapshotMisses, long snapshotEvictions,
+                   long snapshotBytes,
+                   long blobHits, long blobMisses, long blobEvictions, long blobBytes) {
+            this.commitHits = commitHits;
+            this.commitMisses = commitMisses;
+            this.commitEvictions = commitEvictions;
+            this.commitBytes = commitBytes;
+            this.snapshotHits = snapshotHits;
+            this.snapshotMisses = snapshotMisses;
+            this.snapshotEvictions = snapshotEvictions;
+            this.snapshotBytes = snapshotBytes;
+            this.blobHits = blobHits;
+            this.blobMisses = blobMisses;
+            this.blobEvictions = blobEvictions;
+            this.blobBytes = blobBytes;
+        }
+
+        public long getCommitHits() {
+            return commitHits;
+        }
+
+        public long getCommitMisses() {
+            return commitMisses;
+        }
+
+        public long getCommitEvictions() {
+            return commitEvictions;
+        }
+
+        public long getCommitBytes() {
+            return commitBytes;
+        }
+
+        public long getSnapshotHits() {
+            return snapshotHits;
+        }
+
+        public long getSnapshotMisses() {
+            return snapshotMisses;
+        }
+
+        public long getSnapshotEvictions() {
+            return snapshotEvictions;
+        }
+
+        public long getSnapshotBytes() {
+            return snapshotBytes;
+        }
+
+        public long getBlobHits() {
+            return blobHits;
+        }
+
+        public long getBlobMisses() {
+            return blobMisses;
+        }
+
+        public long getBlobEvictions() {
+            return blobEvictions;
+        }
+
+        public long getBlobBytes() {
+            return blobBytes;
+        }
+    }
+
+    /**
+     * How the changed-path filters fared in the last path-limited log.
+     */
+    public static final class FilterStats {
+        private final int commits;
+        private final int skipped;
+        private final int checked;
+        private final int falsePositives;
+
+        FilterStats(int commits, int skipped, int checked, int falsePositives) {
+            this.commits = commits;
+            this.skipped = skipped;
+            this.checked = checked;
+            this.falsePositives = falsePositives;
+        }
+
+        /** Returns the number of commits walked. */
+        public int getCommits() {
+            return commits;
+        }
+
+        /** Returns the number of commits passed over without being read. */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /** Returns the number of commits read to check the file. */
+        public int getChecked() {
+            return checked;
+        }
+
+        /** Returns the number of commits read whose filters claimed a
+         *  change to the file that they did not make. */
+        public int getFalsePositives() {
+            return falsePositives;
+        }
     }
 }
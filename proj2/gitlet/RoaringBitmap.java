@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, after Roaring bitmaps.
+ *
+ *  Values are grouped by their high 16 bits into containers, each holding
+ *  the low 16 bits of its values: as a sorted array while it has at most
+ *  ARRAY_MAX of them, and as a bitmap of 2^16 bits (8 KiB) once it has
+ *  more.  Sparse sets thus take about two bytes per value and dense ones
+ *  about one bit, and union and difference work a container at a time,
+ *  a word at a time between bitmaps.
+ *
+ *  @author onemeter
+ */
+class RoaringBitmap {
+
+    /** Most values a container holds as an array. */
+    private static final int ARRAY_MAX = 4096;
+
+    /** Number of 64-bit words in a bitmap container. */
+    private static final int WORDS = 1 << 10;
+
+    /** Kind byte of an array container in the serialized form. */
+    private static final byte ARRAY = 0;
+
+    /** Kind byte of a bitmap container in the serialized form. */
+    private static final byte BITMAP = 1;
+
+    /** The values whose high 16 bits are the same, by those bits.  Either
+     *  the first size entries of array, in increasing order, or the set
+     *  bits of bits. */
+    private static final class Container {
+        /** The low 16 bits of the values, or null for a bitmap. */
+        char[] array;
+        /** The bitmap of the values, or null for an array. */
+        long[] bits;
+        /** Number of values. */
+        int size;
+
+        /** An empty array container. */
+        Container() {
+            array = new char[4];
+        }
+
+        /** A copy of OTHER. */
+        Container(Container other) {
+            array = other.array == null ? null : Arrays.copyOf(other.array, other.size);
+            bits = other.bits == null ? null : other.bits.clone();
+            size = other.size;
+        }
+
+        /** Returns true iff this holds LOW. */
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, size, low) >= 0;
+        }
+
+        /** Adds LOW. */
+        void add(char low) {
+            if (bits != null) {
+                long word = bits[low >>> 6];
+                bits[low >>> 6] = word | (1L << low);
+                size += (word & (1L << low)) == 0 ? 1 : 0;
+                return;
+            }
+            int k = Arrays.binarySearch(array, 0, size, low);
+            if (k >= 0) {
+                return;
+            }
+            if (size == ARRAY_MAX) {
+                toBitmap();
+                add(low);
+                return;
+            }
+            k = -k - 1;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, Math.max(4, Math.min(2 * size, ARRAY_MAX)));
+            }
+            System.arraycopy(array, k, array, k + 1, size - k);
+            array[k] = low;
+            size += 1;
+        }
+
+        /** Adds every value of OTHER. */
+        void or(Container other) {
+            if (other.bits != null) {
+                toBitmap();
+                int count = 0;
+                for (int w = 0; w < WORDS; w += 1) {
+                    bits[w] |= other.bits[w];
+                    count += Long.bitCount(bits[w]);
+                }
+                size = count;
+            } else {
+                for (int i = 0; i < other.size; i += 1) {
+                    add(other.array[i]);
+                }
+            }
+        }
+
+        /** Removes every value of OTHER. */
+        void andNot(Container other) {
+            if (bits != null) {
+                int count = 0;
+                for (int w = 0; w < WORDS; w += 1) {
+                    bits[w] &= other.bits != null ? ~other.bits[w] : ~0L;
+                    count += Long.bitCount(bits[w]);
+                }
+                if (other.bits == null) {
+                    for (int i = 0; i < other.size; i += 1) {
+                        char low = other.array[i];
+                        if ((bits[low >>> 6] & (1L << low)) != 0) {
+                            bits[low >>> 6] &= ~(1L << low);
+                            count -= 1;
+                        }
+                    }
+                }
+                size = count;
+                if (size <= ARRAY_MAX) {
+                    toArray();
+                }
+            } else {
+                int kept = 0;
+                for (int i = 0; i < size; i += 1) {
+                    if (!other.contains(array[i])) {
+                        array[kept] = array[i];
+                        kept += 1;
+                    }
+                }
+                size = kept;
+            }
+        }
+
+        /** Passes each value to ACTION, in increasing order, with HIGH as
+         *  its high 16 bits. */
+        void forEach(int high, IntConsumer action) {
+            if (bits != null) {
+                for (int w = 0; w < WORDS; w += 1) {
+                    for (long word = bits[w]; word != 0; word &= word - 1) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i += 1) {
+                    action.accept(high | array[i]);
+                }
+            }
+        }
+
+        /** Switches to the bitmap representation. */
+        private void toBitmap() {
+            if (bits == null) {
+                bits = new long[WORDS];
+                for (int i = 0; i < size; i += 1) {
+                    bits[array[i] >>> 6] |= 1L << array[i];
+                }
+                array = null;
+            }
+        }
+
+        /** Switches to the array representation. */
+        private void toArray() {
+            char[] values = new char[Math.max(size, 4)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    values[n] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    n += 1;
+                }
+            }
+            array = values;
+            bits = null;
+        }
+    }
+
+    /** The containers, by the high 16 bits of their values. */
+    private final TreeMap<Integer, Container> containers = new TreeMap<>();
+
+    /** An empty set. */
+    RoaringBitmap() {
+    }
+
+    /** A copy of OTHER. */
+    RoaringBitmap(RoaringBitmap other) {
+        for (Map.Entry<Integer, Container> e : other.containers.entrySet()) {
+            containers.put(e.getKey(), new Container(e.getValue()));
+        }
+    }
+
+    /** Adds VALUE, which must not be negative. */
+    void add(int value) {
+        containers.computeIfAbsent(value >>> 16, k -> new Container()).add((char) value);
+    }
+
+    /** Returns true iff this set holds VALUE. */
+    boolean contains(int value) {
+        Container c = containers.get(value >>> 16);
+        return c != null && c.contains((char) value);
+    }
+
+    /** Adds every value of OTHER to this set. */
+    void or(RoaringBitmap other) {
+        for (Map.Entry<Integer, Container> e : other.containers.entrySet()) {
+            Container c = containers.get(e.getKey());
+            if (c == null) {
+                containers.put(e.getKey(), new Container(e.getValue()));
+            } else {
+                c.or(e.getValue());
+            }
+        }
+    }
+
+    /** Removes every value of OTHER from this set. */
+    void andNot(RoaringBitmap other) {
+        for (Map.Entry<Integer, Container> e : other.containers.entrySet()) {
+            Container c = containers.get(e.getKey());
+            if (c != null) {
+                c.andNot(e.getValue());
+                if (c.size == 0) {
+                    containers.remove(e.getKey());
+                }
+            }
+        }
+    }
+
+    /** Returns the number of values in this set. */
+    int cardinality() {
+        int result = 0;
+        for (Container c : containers.values()) {
+            result += c.size;
+        }
+        return result;
+    }
+
+    /** Passes each value of this set to ACTION, in increasing order. */
+    void forEach(IntConsumer action) {
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            e.getValue().forEach(e.getKey() << 16, action);
+        }
+    }
+
+    /** Writes this set to OUT: the number of containers, then for each
+     *  its high 16 bits, kind and size, followed by its values as 16-bit
+     *  words or its 64-bit bitmap words. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(containers.size());
+        for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+            Container c = e.getValue();
+            out.writeChar(e.getKey());
+            out.writeByte(c.bits != null ? BITMAP : ARRAY);
+            out.writeInt(c.size);
+            if (c.bits != null) {
+                for (long word : c.bits) {
+                    out.writeLong(word);
+                }
+            } else {
+                for (int i = 0; i < c.size; i += 1) {
+                    out.writeChar(c.array[i]);
+                }
+            }
+        }
+    }
+
+    /** Returns the set written by write to IN. */
+    static RoaringBitmap read(DataInputStream in) throws IOException {
+        RoaringBitmap result = new RoaringBitmap();
+        int count = in.readInt();
+        for (int k = 0; k < count; k += 1) {
+            int high = in.readChar();
+            byte kind = in.readByte();
+            int size = in.readInt();
+            Container c = new Container();
+            if (kind == BITMAP) {
+                c.array = null;
+                c.bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    c.bits[w] = in.readLong();
+                }
+            } else if (kind == ARRAY && size <= ARRAY_MAX) {
+                c.array = new char[Math.max(size, 4)];
+                for (int i = 0; i < size; i += 1) {
+                    c.array[i] = in.readChar();
+                }
+            } else {
+                throw new IOException("bad bitmap container");
+            }
+            c.size = size;
+            result.containers.put(high, c);
+        }
+        return result;
+    }
+}
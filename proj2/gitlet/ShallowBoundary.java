@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The shallow boundary of a repository that fetched only the last few
+ *  commits of some history (fetch --depth): the commits it has without
+ *  all of their parents.
+ *
+ *  Every walk through history treats these commits as if they were root
+ *  commits, the way git grafts them: the commit graph records them
+ *  without parents, so log stops at them and merge finds no split point
+ *  beyond them, and neither reachability nor transfers ask for their
+ *  parents.  The commits themselves are unchanged and keep their hashes;
+ *  only where their parents are shown, as by log, do the real ones
+ *  appear.
+ *
+ *  The boundary is stored in the file FILE in the .gitlet directory, one
+ *  hash per line, and is absent in a repository with complete history.
+ *  A fetch adds the commits it brings whose parents did not come with
+ *  them, and removes those whose parents a deeper fetch has since
+ *  brought.  Since the commit graph, the changed-path filters and the
+ *  reachability bitmaps were computed with the old boundary, they are
+ *  then deleted, to be rebuilt when next needed.
+ *
+ *  @author onemeter
+ */
+class ShallowBoundary {
+
+    /** Name of the boundary file in the .gitlet directory. */
+    static final String FILE = "shallow";
+
+    /** Returns the shallow boundary of GITLETDIR, empty if its history is
+     *  complete. */
+    static Set<String> load(File gitletDir) {
+        Set<String> result = new TreeSet<>();
+        File file = join(gitletDir, FILE);
+        if (file.isFile()) {
+            for (String line : readContentsAsString(file).split("\n")) {
+                if (isUid(line)) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Records BOUNDARY as the shallow boundary of GITLETDIR. */
+    private static void save(File gitletDir, Set<String> boundary) {
+        File file = join(gitletDir, FILE);
+        if (boundary.isEmpty()) {
+            file.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String hash : boundary) {
+            contents.append(hash).append('\n');
+        }
+        writeContentsAtomically(file, contents.toString().getBytes());
+    }
+
+    /** Returns those of COMMITS, commits of GITLETDIR, that it lacks a
+     *  parent of. */
+    static List<String> orphans(File gitletDir, Collection<String> commits) {
+        List<String> result = new ArrayList<>();
+        for (String hash : commits) {
+            Commit commit = ObjectStore.readCommit(gitletDir, hash);
+            for (String parent : new String[] {commit.getParent(), commit.getSecondParent()}) {
+                if (parent != null
+                    && !ObjectStore.contains(gitletDir, ObjectStore.COMMIT, parent)) {
+                    result.add(hash);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Updates the boundary of GITLETDIR after a fetch brought it the
+     *  commits FETCHED. */
+    static void update(File gitletDir, Collection<String> fetched) {
+        Set<String> boundary = load(gitletDir);
+        List<String> old = new ArrayList<>(boundary);
+        List<String> incomplete = orphans(gitletDir, old);
+        boolean deepened = false;
+        for (Iterator<String> i = boundary.iterator(); i.hasNext();) {
+            String hash = i.next();
+            if (!incomplete.contains(hash)) {
+                i.remove();
+                deepened = true;
+            }
+        }
+        boolean grown = boundary.addAll(orphans(gitletDir, fetched));
+        if (deepened) {
+            // the parents of these commits were left out of derived data
+            join(gitletDir, "commit-graph").delete();
+            join(gitletDir, "commit-bloom").delete();
+            for (PackFile pack : ObjectStore.packs(gitletDir)) {
+                ReachabilityBitmaps.bitmapFile(pack).delete();
+            }
+        }
+        if (deepened || grown) {
+            save(gitletDir, boundary);
+        }
+    }
+
+    /** Removes from the boundary of GITLETDIR the commits not in
+     *  EXISTING, the commits it still has. */
+    static void retain(File gitletDir, Set<String> existing) {
+        Set<String> boundary = load(gitletDir);
+        if (boundary.retainAll(existing)) {
+            save(gitletDir, boundary);
+        }
+    }
+}
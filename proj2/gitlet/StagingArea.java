@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The staging area of a repository: files staged for addition, with the
+ *  hashes of their staged blobs, and files staged for removal.
+ *
+ *  The whole area lives in the single file "stage", loaded once per
+ *  command and written back atomically.  It holds the magic number MAGIC,
+ *  a format version and the number of additions, then each addition in
+ *  path order as a UTF-8 path prefixed with its varint length and a raw
+ *  20-byte blob hash,
+ *  then the number of removals and each removed path in order, and ends
+ *  with a SHA-1 checksum of everything before it.
+ *
+ *  Repositories created before the stage file kept one file per staged
+ *  path under staging/add and staging/remove; those are read if there is
+ *  no stage file yet and removed on the next save.
+ *
+ *  @author onemeter
+ */
+class StagingArea {
+
+    /** Magic number at the start of the stage file. */
+    private static final int MAGIC = 0x47535431;
+
+    /** Current stage file format version.  Version 1 prefixed paths with
+     *  a 16-bit length rather than a varint. */
+    private static final int VERSION = 2;
+
+    /** The stage file. */
+    private final File file;
+
+    /** The staging directories of repositories that predate the stage
+     *  file. */
+    private final File legacyDir;
+
+    /** Blob hash of each file staged for addition. */
+    private final TreeMap<String, String> additions = new TreeMap<>();
+
+    /** Files staged for removal. */
+    private final TreeSet<String> removals = new TreeSet<>();
+
+    /** True iff this area differs from the stage file. */
+    private boolean dirty;
+
+    /** The staging area of GITLETDIR. */
+    private StagingArea(File gitletDir) {
+        this.file = join(gitletDir, "stage");
+        this.legacyDir = join(gitletDir, "staging");
+    }
+
+    /** Returns the staging area of GITLETDIR. */
+    static StagingArea load(File gitletDir) {
+        StagingArea stage = new StagingArea(gitletDir);
+        if (stage.file.isFile()) {
+            stage.read(readContents(stage.file));
+        } else if (stage.legacyDir.isDirectory()) {
+            stage.readLegacy();
+        }
+        return stage;
+    }
+
+    /** Returns true iff nothing is staged. */
+    boolean isEmpty() {
+        return additions.isEmpty() && removals.isEmpty();
+    }
+
+    /** Returns the blob hash of each file staged for addition, in path
+     *  order. */
+    SortedMap<String, String> getAdditions() {
+        return Collections.unmodifiableSortedMap(additions);
+    }
+
+    /** Returns the files staged for removal, in path order. */
+    SortedSet<String> getRemovals() {
+        return Collections.unmodifiableSortedSet(removals);
+    }
+
+    /** Returns true iff FILENAME is staged for addition. */
+    boolean isStagedForAddition(String filename) {
+        return additions.containsKey(filename);
+    }
+
+    /** Returns true iff FILENAME is staged for removal. */
+    boolean isStagedForRemoval(String filename) {
+        return removals.contains(filename);
+    }
+
+    /** Returns the blob hash staged for FILENAME, or null. */
+    String getStagedHash(String filename) {
+        return additions.get(filename);
+    }
+
+    /** Stages FILENAME for addition with blob hash BLOBHASH. */
+    void stageAddition(String filename, String blobHash) {
+        if (!blobHash.equals(additions.put(filename, blobHash))) {
+            dirty = true;
+        }
+    }
+
+    /** Stages FILENAME for removal. */
+    void stageRemoval(String filename) {
+        if (removals.add(filename)) {
+            dirty = true;
+        }
+    }
+
+    /** Removes FILENAME from the files staged for addition. */
+    void unstageAddition(String filename) {
+        if (additions.remove(filename) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Removes FILENAME from the files staged for removal. */
+    void unstageRemoval(String filename) {
+        if (removals.remove(filename)) {
+            dirty = true;
+        }
+    }
+
+    /** Unstages everything. */
+    void clear() {
+        if (!isEmpty()) {
+            additions.clear();
+            removals.clear();
+            dirty = true;
+        }
+    }
+
+    /** Writes this area back to the stage file if it changed. */
+    void save() {
+        if (!dirty && !legacyDir.exists()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(additions.size());
+            for (Map.Entry<String, String> addition : additions.entrySet()) {
+                writePath(bytes, addition.getKey());
+                out.write(fromHex(addition.getValue()));
+            }
+            out.writeInt(removals.size());
+            for (String removal : removals) {
+                writePath(bytes, removal);
+            }
+            out.write(fromHex(sha1(bytes.toByteArray())));
+            out.close();
+            writeContentsAtomically(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+        deleteLegacy();
+    }
+
+    /** Fills this area from CONTENTS, the contents of the stage file. */
+    private void read(byte[] contents) {
+        int body = contents.length - 20;
+        if (body < 0 || !Arrays.equals(fromHex(sha1(Arrays.copyOf(contents, body))),
+                                       Arrays.copyOfRange(contents, body, contents.length))) {
+            throw error("Corrupt staging area.");
+        }
+        ByteBuffer in = ByteBuffer.wrap(contents, 0, body);
+        if (in.getInt() != MAGIC) {
+            throw error("Corrupt staging area.");
+        }
+        int version = in.getInt();
+        if (version != 1 && version != VERSION) {
+            throw error("Corrupt staging area.");
+        }
+        byte[] hash = new byte[20];
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String path = readPath(in, version);
+            in.get(hash);
+            additions.put(path, toHex(hash));
+        }
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            removals.add(readPath(in, version));
+        }
+    }
+
+    /** Fills this area from the staging directories of a repository that
+     *  predates the stage file. */
+    private void readLegacy() {
+        File addDir = join(legacyDir, "add");
+        File removeDir = join(legacyDir, "remove");
+        for (String name : orEmpty(plainFilenamesIn(addDir))) {
+            additions.put(name, readContentsAsString(join(addDir, name)));
+        }
+        removals.addAll(orEmpty(plainFilenamesIn(removeDir)));
+    }
+
+    /** Removes the staging directories of a repository that predates the
+     *  stage file. */
+    private void deleteLegacy() {
+        for (String sub : new String[] {"add", "remove"}) {
+            File dir = join(legacyDir, sub);
+            for (String name : orEmpty(plainFilenamesIn(dir))) {
+                join(dir, name).delete();
+            }
+            dir.delete();
+        }
+        legacyDir.delete();
+    }
+
+    /** Returns NAMES, or an empty list if it is null. */
+    private static List<String> orEmpty(List<String> names) {
+        return names == null ? Collections.emptyList() : names;
+    }
+
+    /** Writes PATH to OUT as a UTF-8 string prefixed with its varint
+     *  length. */
+    private static void writePath(ByteArrayOutputStream out, String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Reads a path written by writePath, or by a stage file of format
+     *  VERSION, from IN. */
+    private static String readPath(ByteBuffer in, int version) {
+        long length = version == 1 ? in.getShort() & 0xffff : readVarint(in);
+        if (length > in.remaining()) {
+            throw error("Corrupt staging area.");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of the blob hashes of working-directory files, keyed by their
+ *  stat data, so that unchanged files need not be read and hashed again.
+ *
+ *  The index file holds the magic number MAGIC, a format version, the
+ *  time the index was written and the number of entries, followed by one
+ *  entry per path in path order: the path, prefixed with its varint
+ *  length, the file's size, modification time (in nanoseconds) and inode
+ *  number, and the raw hash of its contents.  A trailing SHA-1 of everything before it guards against
+ *  torn writes; an index that fails the check is simply discarded.
+ *
+ *  A cached hash is trusted only if the file's size, modification time
+ *  and inode still match.  A file modified in the same second the index
+ *  was written could change again without its (possibly coarse)
+ *  modification time moving, so such "racily clean" entries are always
+ *  rehashed.  Since a later write moves the index's time on, an entry
+ *  that is racy when its hash is taken, or when it is read from the
+ *  index, is kept with an impossible size, as git does, so that it is
+ *  hashed again however late it is next looked at.
+ *
+ *  A long-lived caller may keep a loaded index and go on using it for as
+ *  long as isCurrent shows, by the index file's own stat data, that no
+ *  other process has rewritten it.
+ *
+ *  @author onemeter
+ */
+class StatIndex {
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x47534931;
+
+    /** Current index format version.  Version 1 prefixed paths with a
+     *  16-bit length; such an index is discarded like a damaged one. */
+    private static final int VERSION = 2;
+
+    /** Size kept for racily clean entries, which no file has. */
+    private static final long SMUDGED = -1;
+
+    /** Cached stat data and hash of one file. */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        final long size;
+        /** Modification time of the file in nanoseconds. */
+        final long mtime;
+        /** Inode number of the file, or 0 if unknown. */
+        final long inode;
+        /** Hash of the file's contents. */
+        final String hash;
+
+        Entry(long size, long mtime, long inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+    }
+
+    /** The index file. */
+    private final File file;
+
+    /** The working directory whose files are indexed. */
+    private final File workDir;
+
+    /** Entries by path relative to the working directory. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Time the index was last written, in nanoseconds. */
+    private long writtenAt;
+
+    /** True iff entries differ from the index file. */
+    private boolean dirty;
+
+    /** Stat data of the index file when it was last read or written by
+     *  this process. */
+    private long[] fileStat;
+
+    /** An index of the files of WORKDIR kept in GITLETDIR. */
+    private StatIndex(File gitletDir, File workDir) {
+        this.file = join(gitletDir, "index");
+        this.workDir = workDir;
+    }
+
+    /** Returns the index of the files of WORKDIR kept in GITLETDIR, or an
+     *  empty one if it is missing or damaged. */
+    static StatIndex load(File gitletDir, File workDir) {
+        StatIndex index = new StatIndex(gitletDir, workDir);
+        long[] fileStat = stat(index.file);
+        if (fileStat == null) {
+            return index;
+        }
+        byte[] contents = readContents(index.file);
+        if (contents.length < 20 || !Arrays.equals(
+                fromHex(sha1(Arrays.copyOf(contents, contents.length - 20))),
+                Arrays.copyOfRange(contents, contents.length - 20, contents.length))) {
+            return index;
+        }
+        ByteBuffer in = ByteBuffer.wrap(contents, 0, contents.length - 20);
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            return index;
+        }
+        index.writtenAt = in.getLong();
+        int count = in.getInt();
+        byte[] hash = new byte[20];
+        for (int i = 0; i < count; i += 1) {
+            long length = readVarint(in);
+            if (length > in.remaining()) {
+                return new StatIndex(gitletDir, workDir);
+            }
+            byte[] path = new byte[(int) length];
+            in.get(path);
+            long size = in.getLong();
+            long mtime = in.getLong();
+            long inode = in.getLong();
+            in.get(hash);
+            Entry entry = new Entry(size, mtime, inode, toHex(hash));
+            if (index.isRacy(entry)) {
+                // trusted only as long as the index keeps its time
+                entry = new Entry(SMUDGED, mtime, inode, entry.hash);
+            }
+            index.entries.put(new String(path, StandardCharsets.UTF_8), entry);
+        }
+        index.fileStat = fileStat;
+        return index;
+    }
+
+    /** Returns true iff the index file is the one this index was read
+     *  from or last wrote, so that no other process has changed it. */
+    boolean isCurrent() {
+        return fileStat != null && Arrays.equals(fileStat, stat(file));
+    }
+
+    /** Returns the hash of the contents of the working file PATH, or null
+     *  if it does not exist.  The file is only read if its stat data no
+     *  longer match the cached entry. */
+    String hash(String path) {
+        File target = join(workDir, path);
+        long[] stat = stat(target);
+        if (stat == null) {
+            remove(path);
+            return null;
+        }
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == stat[0] && entry.mtime == stat[1]
+            && entry.inode == stat[2] && !isRacy(entry)) {
+            return entry.hash;
+        }
+        String hash = sha1(target);
+        entries.put(path, entry(stat, hash));
+        dirty = true;
+        return hash;
+    }
+
+    /** Records that the working file PATH, which was just written, has
+     *  contents whose hash is HASH. */
+    void record(String path, String hash) {
+        long[] stat = stat(join(workDir, path));
+        if (stat == null) {
+            remove(path);
+        } else {
+            entries.put(path, entry(stat, hash));
+            dirty = true;
+        }
+    }
+
+    /** Returns the entry for a file with stat data STAT whose contents
+     *  were just found to have hash HASH, smudged if the file was
+     *  modified in the current second and so may yet change unseen. */
+    private static Entry entry(long[] stat, String hash) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        boolean racy = TimeUnit.NANOSECONDS.toSeconds(stat[1]) >= now;
+        return new Entry(racy ? SMUDGED : stat[0], stat[1], stat[2], hash);
+    }
+
+    /** Forgets the working file PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Writes this index back to its file if it changed. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writtenAt = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(writtenAt);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] path = e.getKey().getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes, path.length);
+                out.write(path);
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+                out.writeLong(e.getValue().inode);
+                out.write(fromHex(e.getValue().hash));
+            }
+            out.write(fromHex(sha1(bytes.toByteArray())));
+            out.close();
+            writeContentsAtomically(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+        fileStat = stat(file);
+    }
+
+    /** Returns true iff ENTRY's file was modified in or after the second
+     *  in which this index was last written. */
+    private boolean isRacy(Entry entry) {
+        return TimeUnit.NANOSECONDS.toSeconds(entry.mtime)
+            >= TimeUnit.NANOSECONDS.toSeconds(writtenAt);
+    }
+
+    /** Returns the size, modification time in nanoseconds and inode number
+     *  (0 where unsupported) of TARGET, or null if it is not a plain
+     *  file. */
+    private static long[] stat(File target) {
+        Path path = target.toPath();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            long inode = 0;
+            try {
+                inode = ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                /* No inode numbers on this file system. */
+            }
+            return new long[] {attrs.size(),
+                               attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), inode};
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Copies the commits one repository is missing from another, with
+ *  everything they refer to, for push and fetch.
+ *
+ *  The sender wants the receiver to have some tip commit, and the
+ *  receiver has some set of commits already.  Because a repository only
+ *  ever stores a commit after its parents and everything in its snapshot
+ *  (and gc keeps it that way), a commit the receiver has stands for its
+ *  whole history: the walk back from the tip stops there.  When the
+ *  sender has reachability bitmaps, the objects reachable from the
+ *  receiver's branches are found first, mostly as unions of bitmaps,
+ *  and what the tip needs is the difference between the two sets, so
+ *  neither history is walked commit by commit.  The commits
+ *  found missing are then copied oldest first, each after the trees and
+ *  blobs of its snapshot the receiver lacks, so that an interrupted
+ *  transfer leaves the receiver with a consistent prefix.  Subtrees the
+ *  receiver has are skipped the same way whole histories are.
+ *
+ *  Between repositories that use the same object format, objects are
+ *  copied as opaque bytes, exactly as stored (see
+ *  ObjectStore.copyStored), and blobs stored as deltas stay deltas, sent
+ *  after their bases.  Otherwise each object is read and written again,
+ *  blobs a buffer at a time.
+ *
+ *  A receiver on the other end of a connection (see RemoteProtocol)
+ *  cannot be asked what it has; it says which commits it has instead.
+ *  The sender takes it to have those, their ancestors, and everything
+ *  in the snapshots of the ones the missing commits descend from, which
+ *  is all the new snapshots share with the old, and sends everything
+ *  else, whole, in the same order.
+ *
+ *  Shallow repositories (see ShallowBoundary) are the exception to
+ *  complete histories.  A fetch limited to a depth walks back only that
+ *  many generations from the tip, breadth first, so that it costs what
+ *  it copies, and leaves the receiver to record the commits it got
+ *  without their parents.  A shallow receiver's commits stand only for
+ *  the history above its boundary, which it says along with what it
+ *  has, and a fetch limited to a depth walks through the commits the
+ *  receiver has to that depth, to deepen that boundary.  Walks stop at
+ *  the sender's own boundary; a fetch passes it on to the receiver, but
+ *  a push refuses to leave the receiver without the parents of a
+ *  boundary commit.
+ *
+ *  @author onemeter
+ */
+class Transfer {
+
+    /** Repository objects are copied from. */
+    private final File from;
+
+    /** Repository objects are copied to, or null if they are sent over
+     *  a connection. */
+    private final File to;
+
+    /** Where objects are sent when TO is null. */
+    private final RemoteProtocol.ObjectWriter out;
+
+    /** Most generations copied back from the tip, or 0 for no limit. */
+    private final int depth;
+
+    /** True iff the receiver must end up with complete history, as it
+     *  must when pushed to. */
+    private final boolean complete;
+
+    /** The shallow boundary of the sender. */
+    private final Set<String> shallow;
+
+    /** The shallow boundary of the receiver. */
+    private final Set<String> receiverShallow = new HashSet<>();
+
+    /** Commit graph of the sender, when TO is null and the receiver has
+     *  commits. */
+    private CommitGraph graph;
+
+    /** The commits of graph a receiver over a connection has. */
+    private final BitSet haveCommits = new BitSet();
+
+    /** The other objects a receiver over a connection has, or has been
+     *  sent. */
+    private final HashSet<String> known = new HashSet<>();
+
+    /** True iff both repositories store objects in the same format. */
+    private final boolean sameFormat;
+
+    /** The commits copied so far, each after its parents. */
+    private final List<String> commits = new ArrayList<>();
+
+    /** Number of objects copied so far. */
+    private int objects;
+
+    /** Number of bytes copied so far. */
+    private long bytes;
+
+    /** A transfer from the repository FROM to TO, or through OUT if TO
+     *  is null, of at most DEPTH generations (0 for all), that must leave
+     *  the receiver with complete history iff COMPLETE. */
+    private Transfer(File from, File to, RemoteProtocol.ObjectWriter out,
+                     int depth, boolean complete) {
+        this.from = from;
+        this.to = to;
+        this.out = out;
+        this.depth = depth;
+        this.complete = complete;
+        this.shallow = ShallowBoundary.load(from);
+        this.sameFormat = to != null && ObjectStore.format(from) == ObjectStore.format(to);
+        if (to != null) {
+            receiverShallow.addAll(ShallowBoundary.load(to));
+        }
+    }
+
+    /** Copies the commit TIP of the repository FROM to TO, which is
+     *  pushed to, with whatever part of its history TO is missing.
+     *  Returns the transfer, to be asked what it copied. */
+    static Transfer push(File from, File to, String tip) {
+        Transfer transfer = new Transfer(from, to, null, 0, true);
+        transfer.copyAll(transfer.missingCommits(tip));
+        return transfer;
+    }
+
+    /** Copies the commit TIP of the repository FROM to TO, which fetches
+     *  it, with whatever part of its history TO is missing, down to DEPTH
+     *  generations back from TIP if DEPTH is positive.  Returns the
+     *  transfer, to be asked what it copied. */
+    static Transfer fetch(File from, File to, String tip, int depth) {
+        Transfer transfer = new Transfer(from, to, null, depth, false);
+        transfer.copyAll(transfer.missingCommits(tip));
+        return transfer;
+    }
+
+    /** Sends the commit TIP of the repository FROM through OUT to a
+     *  server it is pushed to, with whatever part of its history a
+     *  repository that has the commits HAVES, above the shallow boundary
+     *  BOUNDARY, is missing.  HAVES may include commits FROM does not
+     *  have.  Returns the transfer, to be asked what it sent. */
+    static Transfer push(File from, RemoteProtocol.ObjectWriter out, String tip,
+                         Collection<String> haves, Collection<String> boundary) {
+        Transfer transfer = new Transfer(from, null, out, 0, true);
+        transfer.addHaves(haves, boundary);
+        transfer.copyAll(transfer.walkMissing(tip));
+        return transfer;
+    }
+
+    /** Sends the commit TIP of the repository FROM through OUT to a
+     *  client that fetches it, as fetch does to a repository, given that
+     *  the client has the commits HAVES above the shallow boundary
+     *  BOUNDARY.  Returns the transfer, to be asked what it sent. */
+    static Transfer fetch(File from, RemoteProtocol.ObjectWriter out, String tip, int depth,
+                          Collection<String> haves, Collection<String> boundary) {
+        Transfer transfer = new Transfer(from, null, out, depth, false);
+        transfer.addHaves(haves, boundary);
+        transfer.copyAll(transfer.walkMissing(tip));
+        return transfer;
+    }
+
+    /** Copies the commits MISSING, by hash, in order, and adds them to
+     *  the commit index of a receiving repository. */
+    private void copyAll(LinkedHashMap<String, Commit> missing) {
+        CommitIndex commitIndex = to == null ? null : CommitIndex.load(to);
+        for (Map.Entry<String, Commit> commit : missing.entrySet()) {
+            copyCommit(commit.getKey(), commit.getValue());
+            if (commitIndex != null) {
+                commitIndex.add(commit.getKey());
+            }
+        }
+        if (commitIndex != null) {
+            commitIndex.save();
+        }
+    }
+
+    /** Copies the commit COMMIT whose hash is HASH, after what the
+     *  receiver is missing of its snapshot. */
+    private void copyCommit(String hash, Commit commit) {
+        if (commit.getTree() != null) {
+            Tree.copy(this, commit.getTree());
+        } else {
+            for (String blobHash : commit.getFileSnapshots().values()) {
+                copy(ObjectStore.BLOB, blobHash);
+            }
+        }
+        copy(ObjectStore.COMMIT, hash);
+        commits.add(hash);
+    }
+
+    /** Returns the commits TIP and its ancestors in the sending
+     *  repository that the receiving one does not have, by hash, each
+     *  after its parents. */
+    private LinkedHashMap<String, Commit> missingCommits(String tip) {
+        if (depth > 0 || !receiverShallow.isEmpty()) {
+            // the receiver's branches may not hold their whole history
+            return walkMissing(tip);
+        }
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.load(from);
+        ReachabilityBitmaps.ObjectSet have = null;
+        if (!bitmaps.isEmpty()) {
+            // what the receiver's branches hold, mostly as unions of bitmaps
+            List<String> haves = new ArrayList<>();
+            for (String hash : ReachabilityBitmaps.refTips(to)) {
+                if (ObjectStore.contains(from, ObjectStore.COMMIT, hash)) {
+                    haves.add(hash);
+                }
+            }
+            have = bitmaps.reachable(haves, List.of(), (type, hash) -> false);
+        }
+        ReachabilityBitmaps.ObjectSet known = have;
+        ReachabilityBitmaps.ObjectSet want = bitmaps.reachable(List.of(tip), List.of(),
+            (type, hash) -> (known != null && known.contains(hash)) || has(type, hash));
+        if (have != null) {
+            want.removeAll(have);
+        }
+        HashMap<String, Commit> missing = new HashMap<>();
+        want.forEach((hash, type) -> {
+            if (type == ObjectStore.COMMIT && !has(ObjectStore.COMMIT, hash)) {
+                missing.put(hash, ObjectStore.readCommit(from, hash));
+            }
+        });
+        checkBoundary(missing);
+        return parentsFirst(tip, missing);
+    }
+
+    /** Records that a receiver over a connection has the commits HAVES
+     *  and their ancestors, but not the parents of those on its shallow
+     *  boundary BOUNDARY. */
+    private void addHaves(Collection<String> haves, Collection<String> boundary) {
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (String hash : haves) {
+            if (ObjectStore.contains(from, ObjectStore.COMMIT, hash)) {
+                if (graph == null) {
+                    graph = CommitGraph.load(from);
+                }
+                pending.push(graph.ensure(hash));
+            }
+        }
+        if (graph == null) {
+            return;
+        }
+        receiverShallow.addAll(boundary);
+        while (!pending.isEmpty()) {
+            int k = pending.pop();
+            if (haveCommits.get(k)) {
+                continue;
+            }
+            haveCommits.set(k);
+            if (receiverShallow.contains(graph.hashAt(k))) {
+                continue;
+            }
+            for (int p : new int[] {graph.parent(k), graph.secondParent(k)}) {
+                if (p != CommitGraph.NONE && !haveCommits.get(p)) {
+                    pending.push(p);
+                }
+            }
+        }
+    }
+
+    /** Returns the commits TIP and its ancestors in the sending
+     *  repository, down to depth generations, that the receiver is
+     *  missing, by hash, each after its parents.  The walk goes a
+     *  generation at a time and stops at commits the receiver has, except
+     *  that a walk limited to a depth goes on through them to that depth,
+     *  to deepen the receiver's boundary.  For a receiver over a
+     *  connection, records the snapshots it has on the way. */
+    private LinkedHashMap<String, Commit> walkMissing(String tip) {
+        LinkedHashMap<String, Commit> missing = new LinkedHashMap<>();
+        HashSet<String> edges = new HashSet<>();
+        List<String> generation = List.of(tip);
+        for (int level = 1; !generation.isEmpty(); level += 1) {
+            List<String> next = new ArrayList<>();
+            for (String hash : generation) {
+                if (missing.containsKey(hash) || edges.contains(hash)) {
+                    continue;
+                }
+                Commit commit = ObjectStore.readCommit(from, hash);
+                if (has(ObjectStore.COMMIT, hash)) {
+                    edges.add(hash);
+                    if (depth > 0 && level < depth) {
+                        next.addAll(parents(hash, commit));
+                    }
+                    continue;
+                }
+                missing.put(hash, commit);
+                if (depth == 0 || level < depth) {
+                    next.addAll(parents(hash, commit));
+                }
+            }
+            generation = next;
+        }
+        checkBoundary(missing);
+
+        // the receiver has the snapshots of the commits the missing ones
+        // grew from, which hold most of what the new snapshots refer to
+        if (to == null) {
+            for (String hash : edges) {
+                Commit commit = ObjectStore.readCommit(from, hash);
+                if (commit.getTree() != null) {
+                    Tree.walk(from, commit.getTree(), known::add, known::add);
+                } else {
+                    known.addAll(commit.getFileSnapshots().values());
+                }
+            }
+        }
+        return parentsFirst(tip, missing);
+    }
+
+    /** Throws a GitletException if the receiver must end up with
+     *  complete history but would lack a parent of one of the commits
+     *  MISSING, which are those it is sent. */
+    private void checkBoundary(Map<String, Commit> missing) {
+        if (!complete) {
+            return;
+        }
+        for (String hash : shallow) {
+            Commit commit = missing.get(hash);
+            if (commit == null) {
+                continue;
+            }
+            for (String parent : new String[] {commit.getParent(), commit.getSecondParent()}) {
+                if (parent != null && !has(ObjectStore.COMMIT, parent)) {
+                    throw Utils.error("The remote lacks history beyond this shallow "
+                            + "repository's boundary.");
+                }
+            }
+        }
+    }
+
+    /** Returns the commits MISSING, by hash, each after its parents,
+     *  starting with the history of TIP. */
+    private LinkedHashMap<String, Commit> parentsFirst(String tip, Map<String, Commit> missing) {
+        // depth-first walks that emit each commit once its missing
+        // parents have been; a deepening fetch misses commits below
+        // ones the receiver has, which TIP does not reach through missing
+        // commits
+        LinkedHashMap<String, Commit> result = new LinkedHashMap<>();
+        ArrayDeque<String> path = new ArrayDeque<>();
+        List<String> roots = new ArrayList<>();
+        roots.add(tip);
+        roots.addAll(missing.keySet());
+        for (String root : roots) {
+            path.push(root);
+            while (!path.isEmpty()) {
+                String hash = path.peek();
+                if (result.containsKey(hash) || !missing.containsKey(hash)) {
+                    path.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : parents(hash, missing.get(hash))) {
+                    if (missing.containsKey(parent) && !result.containsKey(parent)) {
+                        path.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    path.pop();
+                    result.put(hash, missing.get(hash));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the parents of COMMIT, whose hash is HASH, in the sending
+     *  repository: none if it is on its shallow boundary. */
+    private List<String> parents(String hash, Commit commit) {
+        List<String> result = new ArrayList<>(2);
+        if (shallow.contains(hash)) {
+            return result;
+        }
+        if (commit.getParent() != null) {
+            result.add(commit.getParent());
+        }
+        if (commit.getSecondParent() != null) {
+            result.add(commit.getSecondParent());
+        }
+        return result;
+    }
+
+    /** Returns true iff the receiving repository has the object of type
+     *  TYPE whose hash is HASH. */
+    boolean has(byte type, String hash) {
+        if (to != null) {
+            return ObjectStore.contains(to, type, hash);
+        } else if (known.contains(hash)) {
+            return true;
+        }
+        int k = type == ObjectStore.COMMIT && graph != null
+            ? graph.indexOf(hash) : CommitGraph.NONE;
+        return k != CommitGraph.NONE && haveCommits.get(k);
+    }
+
+    /** Copies the object of type TYPE whose hash is HASH to the
+     *  receiving repository unless it is there already. */
+    void copy(byte type, String hash) {
+        if (has(type, hash)) {
+            return;
+        }
+        if (to == null) {
+            try (InputStream in = ObjectStore.open(from, type, hash)) {
+                bytes += out.write(type, hash, in);
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+            known.add(hash);
+            objects += 1;
+            return;
+        }
+        if (sameFormat) {
+            String base = type == ObjectStore.BLOB ? ObjectStore.deltaBase(from, hash) : null;
+            if (base == null) {
+                bytes += ObjectStore.copyStored(from, to, type, hash);
+                objects += 1;
+                return;
+            }
+            // the delta is only valid as is on top of an equally long chain
+            copy(ObjectStore.BLOB, base);
+            if (ObjectStore.deltaDepth(to, base) + 1 == ObjectStore.deltaDepth(from, hash)) {
+                bytes += ObjectStore.copyStored(from, to, ObjectStore.DELTA, hash);
+                objects += 1;
+                return;
+            }
+        }
+        if (type == ObjectStore.BLOB) {
+            try (InputStream in = ObjectStore.open(from, type, hash)) {
+                long length = ObjectStore.writeBlob(to, hash, in);
+                if (length < 0) {
+                    throw new IllegalArgumentException("object " + hash
+                                                       + " does not match its hash");
+                }
+                bytes += length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else {
+            byte[] contents = ObjectStore.read(from, type, hash);
+            ObjectStore.write(to, type, hash, contents);
+            bytes += contents.length;
+        }
+        objects += 1;
+    }
+
+    /** Returns the sending repository. */
+    File getFrom() {
+        return from;
+    }
+
+    /** Returns the commits copied, each after its parents. */
+    List<String> getCommits() {
+        return commits;
+    }
+
+    /** Returns the number of objects copied. */
+    int getObjects() {
+        return objects;
+    }
+
+    /** Returns the number of bytes copied. */
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,275 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** The contents of one directory of a snapshot: the files and
+ *  subdirectories directly inside it, each named by the hash of its blob
+ *  or tree.  Trees are content-addressed objects (ObjectStore.TREE), so a
+ *  directory that did not change between commits is one shared object,
+ *  and a commit only writes new trees for the directories on the paths
+ *  it changes.
+ *
+ *  A tree is stored as a format version, the number of entries and the
+ *  entries sorted by the UTF-8 bytes of their names: a kind byte (BLOB or
+ *  TREE), the varint-length-prefixed name and the raw 20-byte hash.
+ *
+ *  Paths in snapshots are relative to the working directory, with
+ *  components separated by '/'.
+ *
+ *  @author onemeter
+ */
+class Tree {
+
+    /** Current tree encoding version. */
+    private static final int VERSION = 1;
+
+    /** Kind of an entry naming a file. */
+    private static final byte BLOB = 1;
+
+    /** Kind of an entry naming a subdirectory. */
+    private static final byte TREE = 2;
+
+    /** Size of a raw SHA-1 hash in bytes. */
+    private static final int HASH_SIZE = PackFile.HASH_SIZE;
+
+    /** One entry of a tree. */
+    private static class Entry {
+        /** BLOB or TREE. */
+        final byte kind;
+        /** Hash of the entry's blob or tree. */
+        final String hash;
+
+        Entry(byte kind, String hash) {
+            this.kind = kind;
+            this.hash = hash;
+        }
+    }
+
+    /** Entries by name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Returns the tree whose hash is HASH in GITLETDIR. */
+    static Tree read(File gitletDir, String hash) {
+        ByteBuffer in = ByteBuffer.wrap(ObjectStore.read(gitletDir, ObjectStore.TREE, hash));
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("unknown tree encoding " + hash);
+        }
+        Tree tree = new Tree();
+        byte[] raw = new byte[HASH_SIZE];
+        for (long n = readVarint(in); n > 0; n -= 1) {
+            byte kind = in.get();
+            byte[] name = new byte[(int) readVarint(in)];
+            in.get(name);
+            in.get(raw);
+            tree.entries.put(new String(name, StandardCharsets.UTF_8),
+                             new Entry(kind, toHex(raw)));
+        }
+        return tree;
+    }
+
+    /** Stores this tree in GITLETDIR and returns its hash. */
+    String write(File gitletDir) {
+        byte[][] names = new byte[entries.size()][];
+        int k = 0;
+        for (String name : entries.keySet()) {
+            names[k] = name.getBytes(StandardCharsets.UTF_8);
+            k += 1;
+        }
+        Arrays.sort(names, Arrays::compareUnsigned);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(VERSION);
+        writeVarint(out, names.length);
+        for (byte[] name : names) {
+            Entry entry = entries.get(new String(name, StandardCharsets.UTF_8));
+            out.write(entry.kind);
+            writeVarint(out, name.length);
+            out.write(name, 0, name.length);
+            out.write(fromHex(entry.hash), 0, HASH_SIZE);
+        }
+        byte[] contents = out.toByteArray();
+        String hash = sha1(contents);
+        ObjectStore.write(gitletDir, ObjectStore.TREE, hash, contents);
+        return hash;
+    }
+
+    /** Returns the hash of the blob at PATH in the snapshot whose root
+     *  tree is ROOT in GITLETDIR, or null if there is none.  Reads only
+     *  the trees along PATH. */
+    static String lookup(File gitletDir, String root, String path) {
+        String hash = root;
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            String name = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            Entry entry = read(gitletDir, hash).entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (slash < 0) {
+                return entry.kind == BLOB ? entry.hash : null;
+            }
+            if (entry.kind != TREE) {
+                return null;
+            }
+            hash = entry.hash;
+            start = slash + 1;
+        }
+    }
+
+    /** Adds to FILES the path and blob hash of every file in the snapshot
+     *  whose root tree is ROOT in GITLETDIR. */
+    static void flatten(File gitletDir, String root, Map<String, String> files) {
+        flatten(gitletDir, root, "", files);
+    }
+
+    /** Adds to FILES the blob hash of every file under the tree HASH,
+     *  whose path is PREFIX. */
+    private static void flatten(File gitletDir, String hash, String prefix,
+                                Map<String, String> files) {
+        for (Map.Entry<String, Entry> e : read(gitletDir, hash).entries.entrySet()) {
+            if (e.getValue().kind == TREE) {
+                flatten(gitletDir, e.getValue().hash, prefix + e.getKey() + "/", files);
+            } else {
+                files.put(prefix + e.getKey(), e.getValue().hash);
+            }
+        }
+    }
+
+    /** Adds to PATHS the path of every file whose blob differs between
+     *  the snapshots whose root trees are OLDROOT and NEWROOT in GITLETDIR
+     *  (either may be null for an empty snapshot), including files only
+     *  one of them has.  Subtrees the two share are not read. */
+    static void changedPaths(File gitletDir, String oldRoot, String newRoot,
+                             Set<String> paths) {
+        changedPaths(gitletDir, oldRoot, newRoot, "", paths);
+    }
+
+    /** Adds to PATHS the paths, under PREFIX, of the files that differ
+     *  between the trees OLDHASH and NEWHASH (either may be null). */
+    private static void changedPaths(File gitletDir, String oldHash, String newHash,
+                                     String prefix, Set<String> paths) {
+        if (oldHash != null && oldHash.equals(newHash)) {
+            return;
+        }
+        Map<String, Entry> oldEntries = oldHash == null
+            ? Map.of() : read(gitletDir, oldHash).entries;
+        Map<String, Entry> newEntries = newHash == null
+            ? Map.of() : read(gitletDir, newHash).entries;
+        TreeSet<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+        for (String name : names) {
+            Entry oldEntry = oldEntries.get(name);
+            Entry newEntry = newEntries.get(name);
+            if (oldEntry != null && newEntry != null && oldEntry.kind == newEntry.kind
+                && oldEntry.hash.equals(newEntry.hash)) {
+                continue;
+            }
+            String path = prefix + name;
+            if (oldEntry != null && oldEntry.kind == BLOB
+                || newEntry != null && newEntry.kind == BLOB) {
+                paths.add(path);
+            }
+            String oldTree = oldEntry != null && oldEntry.kind == TREE ? oldEntry.hash : null;
+            String newTree = newEntry != null && newEntry.kind == TREE ? newEntry.hash : null;
+            if (oldTree != null || newTree != null) {
+                changedPaths(gitletDir, oldTree, newTree, path + "/", paths);
+            }
+        }
+    }
+
+    /** Visits the tree ROOT in GITLETDIR and everything under it: passes
+     *  each tree to VISITTREE, descending into it only if that returns
+     *  true, and each blob to VISITBLOB. */
+    static void walk(File gitletDir, String root, Predicate<String> visitTree,
+                     Consumer<String> visitBlob) {
+        if (!visitTree.test(root)) {
+            return;
+        }
+        for (Entry entry : read(gitletDir, root).entries.values()) {
+            if (entry.kind == TREE) {
+                walk(gitletDir, entry.hash, visitTree, visitBlob);
+            } else {
+                visitBlob.accept(entry.hash);
+            }
+        }
+    }
+
+    /** Returns the hash of the root tree of the snapshot obtained from the
+     *  one whose root tree is ROOT (null for an empty snapshot) in
+     *  GITLETDIR by applying CHANGES, which maps paths to their new blob
+     *  hashes, or to null for paths to remove.  Only the trees along the
+     *  changed paths are read and written; a directory left empty is
+     *  removed. */
+    static String update(File gitletDir, String root, Map<String, String> changes) {
+        String result = updateTree(gitletDir, root, changes);
+        return result != null ? result : new Tree().write(gitletDir);
+    }
+
+    /** Returns the hash of the tree obtained from tree HASH (null if
+     *  there is none) by applying CHANGES, whose paths are relative to it,
+     *  or null if the result is empty. */
+    private static String updateTree(File gitletDir, String hash, Map<String, String> changes) {
+        Tree tree = hash == null ? new Tree() : read(gitletDir, hash);
+        HashMap<String, Map<String, String>> subdirs = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), d -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                Entry entry = tree.entries.get(path);
+                if (entry != null && entry.kind == BLOB) {
+                    tree.entries.remove(path);
+                }
+            } else {
+                tree.entries.put(path, new Entry(BLOB, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir : subdirs.entrySet()) {
+            Entry entry = tree.entries.get(subdir.getKey());
+            String subtree = updateTree(gitletDir,
+                                        entry != null && entry.kind == TREE ? entry.hash : null,
+                                        subdir.getValue());
+            if (subtree != null) {
+                tree.entries.put(subdir.getKey(), new Entry(TREE, subtree));
+            } else if (entry != null && entry.kind == TREE) {
+                tree.entries.remove(subdir.getKey());
+            }
+        }
+        if (tree.entries.isEmpty()) {
+            return null;
+        }
+        return tree.write(gitletDir);
+    }
+
+    /** Copies the tree HASH, and every tree and blob under it, as part of
+     *  TRANSFER.  Subtrees the receiver already has are skipped, since a
+     *  tree is only ever stored after everything under it. */
+    static void copy(Transfer transfer, String hash) {
+        if (transfer.has(ObjectStore.TREE, hash)) {
+            return;
+        }
+        for (Entry entry : read(transfer.getFrom(), hash).entries.values()) {
+            if (entry.kind == TREE) {
+                copy(transfer, entry.hash);
+            } else {
+                transfer.copy(ObjectStore.BLOB, entry.hash);
+            }
+        }
+        transfer.copy(ObjectStore.TREE, hash);
+    }
+}
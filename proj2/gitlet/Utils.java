@@ -1,22 +1,30 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /** Assorted utilities.
@@ -31,6 +39,9 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffers used to stream file contents. */
+    static final int BUFFER_SIZE = 8192;
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
@@ -57,12 +68,80 @@ class Utils {
         }
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  fixed-size buffer so that files of any size can be hashed.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns true iff HASH is a complete SHA-1 UID in lower-case
+     *  hexadecimal. */
+    static boolean isUid(String hash) {
+        if (hash.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(hash.charAt(i), 16) < 0
+                || Character.isUpperCase(hash.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the hexadecimal numeral denoting the bytes of RAW. */
+    static String toHex(byte[] raw) {
+        char[] result = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = Character.forDigit((raw[i] >> 4) & 0xf, 16);
+            result[2 * i + 1] = Character.forDigit(raw[i] & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX.  Throws
+     *  IllegalArgumentException if HEX is not a valid numeral. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd-length hex string");
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("bad hex string");
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,6 +215,39 @@ class Utils {
         }
     }
 
+    /** Write CONTENTS to FILE by writing a temporary file beside it and
+     *  renaming it into place, so that readers see either the old or the
+     *  new contents in full.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void writeContentsAtomically(File file, byte[] contents) {
+        File tmp = new File(file.getPath() + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the bytes remaining in IN to FILE, creating or overwriting it
+     *  as needed, without holding them all in memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContents(File file, InputStream in) {
+        try {
+            if (file.isDirectory()) {
+                throw
+                    new IllegalArgumentException("cannot overwrite directory");
+            }
+            OutputStream str = Files.newOutputStream(file.toPath());
+            in.transferTo(str);
+            str.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -220,6 +332,94 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
+    /* VARIABLE-LENGTH INTEGERS */
+
+    /** Writes the non-negative VALUE to OUT as a varint: seven bits per
+     *  byte, least significant first, with the high bit set on every byte
+     *  but the last. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint written by writeVarint from IN. */
+    static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    /* COMPRESSION */
+
+    /** Returns CONTENTS compressed in zlib format. */
+    static byte[] compress(byte[] contents) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteArrayOutputStream result =
+                new ByteArrayOutputStream(contents.length / 2 + 64);
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                result.write(buf, 0, n);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns the zlib-compressed COMPRESSED uncompressed.  Throws
+     *  IllegalArgumentException if it is not valid zlib data. */
+    static byte[] decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream result =
+                new ByteArrayOutputStream(compressed.length * 3 + 64);
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated compressed data");
+                }
+                result.write(buf, 0, n);
+            }
+            return result.toByteArray();
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
 
 
     /* MESSAGES AND ERROR REPORTING */
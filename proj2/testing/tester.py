@@ -47,6 +47,9 @@ The instructions each have one of the following forms:
           intended to let you set up remote repositories.
    T N    Set the timeout for gitlet commands in the rest of this test to N
           seconds.
+   J OPTIONS
+          Pass the JVM options OPTIONS (such as -Dgitlet.verbose=true) to
+          gitlet commands in the rest of this test.  J alone passes none.
    + NAME F
           Copy the contents of src/F into a file named NAME.
    - NAME
@@ -114,7 +117,9 @@ def Group(n):
 
 def contents(filename):
     try:
-        with open(filename) as inp:
+        # surrogateescape keeps bytes that are not text, so binary
+        # files compare exactly.
+        with open(filename, errors='surrogateescape') as inp:
             return inp.read()
     except FileNotFoundError:
         return None
@@ -156,12 +161,12 @@ def doCopy(dest, src, dir):
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
-def doExecute(cmnd, dir, timeout, line_num):
+def doExecute(cmnd, dir, timeout, line_num, jvm_options=""):
     here = getcwd()
     out = ""
     try:
         chdir(dir)
-        full_cmnd = "{} {} {}".format(JAVA_COMMAND, GITLET_CLASS, cmnd)
+        full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, jvm_options, GITLET_CLASS, cmnd)
         skip_first_line = False
 
         if DEBUG:
@@ -173,7 +178,8 @@ def doExecute(cmnd, dir, timeout, line_num):
                 next_cmd = input(input_prompt)
 
             if next_cmd == "s":
-                full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, GITLET_CLASS, cmnd)
+                full_cmnd = "{} {} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, jvm_options,
+                                                    GITLET_CLASS, cmnd)
                 timeout, skip_first_line = None, True
 
         out = doCommand(full_cmnd, timeout, skip_first_line)
@@ -280,6 +286,7 @@ def doTest(test):
         print(DEBUG_MSG)
 
     timeout = TIMEOUT
+    jvm_options = ""
     defns = {}
 
     def do_substs(L):
@@ -334,6 +341,8 @@ def doTest(test):
                     timeout = float(Group(1))
                 except:
                     ValueError("bad time: {}".format(line))
+            elif Match(r'J\s*(.*)', line):
+                jvm_options = Group(1).strip()
             elif Match(r'\+\s*(\S+)\s+(\S+)', line):
                 doCopy(Group(1), Group(2), cdir)
             elif Match(r'-\s*(\S+)', line):
@@ -351,7 +360,7 @@ def doTest(test):
                         is_regexp = Group(1)
                         break
                     expected.append(do_substs(L))
-                msg, out = doExecute(cmnd, cdir, timeout, line_num)
+                msg, out = doExecute(cmnd, cdir, timeout, line_num, jvm_options)
                 if verbose:
                     if out:
                         print(re.sub(r'(?m)^', '- ', chop_nl(out)))